@@ -0,0 +1,308 @@
+package org.nd4j.autodiff.data;
+
+import org.nd4j.autodiff.nn.NativeExecution;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads, augments and batches a data set on background threads while the
+ * training step runs.
+ *
+ * A loader thread pulls batches from the source iterator and hands them to
+ * the augmentation pool. A copy thread then copies the finished batches,
+ * in their original order, into a ring of preallocated feature and label
+ * buffers. next() only takes the next filled buffer, so the training loop
+ * waits only when loading falls behind; that wait is reported as stall
+ * time.
+ *
+ * The batch returned by next() is backed by a ring buffer and stays valid
+ * until the following call of next(), hasNext() or reset(). Masks are not
+ * copied.
+ */
+public class PrefetchingLoader implements AutoCloseable {
+    private static final Slot END = new Slot();
+
+    private final DataSetIterator source;
+    private final DataSetPreProcessor augmentation;
+    private final ExecutorService augmentationPool;
+    private final BlockingQueue<Slot> free;
+    private final BlockingQueue<Slot> ready;
+    private final BlockingQueue<Future<DataSet>> pending;
+
+    private Thread loader;
+    private Thread copier;
+    private Slot current;
+    private Slot next;
+    private volatile Throwable failure;
+
+    private long batches;
+    private long lastStallNanos;
+    private long totalStallNanos;
+
+    private static class Slot {
+        INDArray features;
+        INDArray labels;
+        DataSet dataSet;
+
+        void copy(DataSet batch) {
+            features = copyInto(features, batch.getFeatures());
+            labels = copyInto(labels, batch.getLabels());
+            dataSet = new DataSet(features, labels);
+        }
+
+        private static INDArray copyInto(INDArray buffer, INDArray value) {
+            if (value == null) {
+                return null;
+            }
+            if (buffer == null || buffer.dataType() != value.dataType() || !Arrays.equals(buffer.shape(), value.shape())) {
+                try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                    buffer = Nd4j.createUninitialized(value.dataType(), value.shape());
+                }
+            }
+
+            return buffer.assign(value);
+        }
+    }
+
+    /**
+     * @param source The iterator to load batches from.
+     * @param buffers The number of batches loaded ahead.
+     */
+    public PrefetchingLoader(DataSetIterator source, int buffers) {
+        this(source, buffers, null, 0);
+    }
+
+    /**
+     * @param source The iterator to load batches from.
+     * @param buffers The number of batches loaded ahead.
+     * @param augmentation Applied to every batch on the augmentation pool, may be null.
+     * @param augmentationThreads The number of threads augmenting batches at once.
+     */
+    public PrefetchingLoader(DataSetIterator source, int buffers, DataSetPreProcessor augmentation, int augmentationThreads) {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("At least two buffers are needed to load ahead, got " + buffers + ".");
+        }
+
+        this.source = source;
+        this.augmentation = augmentation;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        // Room for every slot and the end marker, so the copy thread never blocks on it.
+        this.ready = new ArrayBlockingQueue<>(buffers + 1);
+        this.pending = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            free.add(new Slot());
+        }
+
+        if (augmentation != null) {
+            AtomicInteger count = new AtomicInteger();
+            augmentationPool = Executors.newFixedThreadPool(Math.max(1, augmentationThreads), r -> {
+                Thread thread = new Thread(r, "prefetch-augment-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            augmentationPool = null;
+        }
+
+        start();
+    }
+
+    private void start() {
+        failure = null;
+
+        loader = new Thread(this::load, "prefetch-load");
+        loader.setDaemon(true);
+        copier = new Thread(this::copy, "prefetch-copy");
+        copier.setDaemon(true);
+
+        loader.start();
+        copier.start();
+    }
+
+    private void load() {
+        try {
+            while (source.hasNext()) {
+                DataSet batch = NativeExecution.run(source::next);
+                if (augmentationPool != null) {
+                    pending.put(augmentationPool.submit(() -> NativeExecution.run(() -> {
+                        augmentation.preProcess(batch);
+                        return batch;
+                    })));
+                } else {
+                    pending.put(CompletableFuture.completedFuture(batch));
+                }
+            }
+            pending.put(CompletableFuture.completedFuture(null));
+        } catch (InterruptedException e) {
+            // Stopped by reset or close.
+        } catch (RuntimeException e) {
+            CompletableFuture<DataSet> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                pending.put(failed);
+            } catch (InterruptedException stopped) {
+                // Stopped by reset or close.
+            }
+        }
+    }
+
+    private void copy() {
+        try {
+            while (true) {
+                DataSet batch;
+                try {
+                    batch = pending.take().get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    ready.offer(END);
+                    return;
+                }
+                if (batch == null) {
+                    ready.offer(END);
+                    return;
+                }
+
+                Slot slot = free.take();
+                NativeExecution.execute(() -> slot.copy(batch));
+                ready.offer(slot);
+            }
+        } catch (InterruptedException e) {
+            // Stopped by reset or close.
+        } catch (RuntimeException e) {
+            failure = e;
+            ready.offer(END);
+        }
+    }
+
+    /**
+     * Waits for the next batch if it is not loaded yet.
+     *
+     * @return true if there is another batch in this epoch.
+     */
+    public boolean hasNext() {
+        release();
+        if (next == null) {
+            long started = System.nanoTime();
+            try {
+                next = ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the next batch.", e);
+            }
+            lastStallNanos = System.nanoTime() - started;
+            totalStallNanos += lastStallNanos;
+        }
+
+        if (next == END && failure != null) {
+            throw new IllegalStateException("Loading the next batch failed.", failure);
+        }
+
+        return next != END;
+    }
+
+    /**
+     * @return the next batch, valid until the next call of next, hasNext or reset.
+     */
+    public DataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        current = next;
+        next = null;
+        batches++;
+
+        return current.dataSet;
+    }
+
+    private void release() {
+        if (current != null) {
+            free.offer(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Stops loading, resets the source iterator and starts loading the next
+     * epoch.
+     */
+    public void reset() {
+        stop();
+        source.reset();
+        start();
+    }
+
+    private void stop() {
+        loader.interrupt();
+        copier.interrupt();
+        try {
+            loader.join();
+            copier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        release();
+        if (next != null && next != END) {
+            free.offer(next);
+        }
+        next = null;
+
+        Slot slot;
+        while ((slot = ready.poll()) != null) {
+            if (slot != END) {
+                free.offer(slot);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return how long the last hasNext or next call waited for its batch, in milliseconds.
+     */
+    public double getLastStallMillis() {
+        return lastStallNanos / 1e6;
+    }
+
+    /**
+     * @return how long the training loop waited for batches in total, in milliseconds.
+     */
+    public double getTotalStallMillis() {
+        return totalStallNanos / 1e6;
+    }
+
+    /**
+     * @return the average wait for a batch, in milliseconds per step.
+     */
+    public double getMeanStallMillis() {
+        return batches == 0 ? 0.0 : totalStallNanos / (batches * 1e6);
+    }
+
+    public long getBatchCount() {
+        return batches;
+    }
+
+    @Override
+    public void close() {
+        stop();
+        if (augmentationPool != null) {
+            augmentationPool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.nd4j.autodiff.distributed;
+
+import org.nd4j.autodiff.nn.NativeExecution;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sums arrays across processes with a ring all-reduce over TCP.
+ *
+ * Every process, or rank, connects to the next rank in the ring and
+ * accepts a connection from the previous one. An array is split into one
+ * chunk per rank. In a reduce-scatter phase each rank passes chunks along
+ * the ring, adding what it receives, until every rank holds the full sum of
+ * one chunk; an all-gather phase then passes the summed chunks around. Each
+ * rank sends and receives 2 * (N - 1) / N times the array size, no matter
+ * how many ranks there are. Arrays are sent and summed in their own data
+ * type.
+ *
+ * Sending happens on its own thread, so neighbours never block each other
+ * on full socket buffers.
+ */
+public class RingAllReduce implements AutoCloseable {
+    private static final long CONNECT_TIMEOUT_MILLIS = 60_000;
+
+    private final int rank;
+    private final int worldSize;
+    private final ServerSocket server;
+    private final Socket nextSocket;
+    private final Socket previousSocket;
+    private final DataOutputStream next;
+    private final DataInputStream previous;
+    private final ExecutorService sender;
+
+    /**
+     * Joins the ring. Blocks until this rank is connected to both of its
+     * neighbours, so all ranks have to be started at about the same time.
+     *
+     * @param rank The position of this process in the ring.
+     * @param addresses The address every rank listens on, in rank order.
+     * @throws IOException if the ring could not be connected.
+     */
+    public RingAllReduce(int rank, List<InetSocketAddress> addresses) throws IOException {
+        this.rank = rank;
+        this.worldSize = addresses.size();
+        this.sender = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ring-all-reduce-" + rank);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (worldSize == 1) {
+            server = null;
+            nextSocket = null;
+            previousSocket = null;
+            next = null;
+            previous = null;
+            return;
+        }
+
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(addresses.get(rank));
+
+        nextSocket = connect(addresses.get((rank + 1) % worldSize));
+        previousSocket = server.accept();
+        previousSocket.setTcpNoDelay(true);
+
+        next = new DataOutputStream(new BufferedOutputStream(nextSocket.getOutputStream(), 1 << 16));
+        previous = new DataInputStream(new BufferedInputStream(previousSocket.getInputStream(), 1 << 16));
+    }
+
+    /**
+     * Joins a ring of processes on this machine listening on consecutive
+     * loopback ports.
+     *
+     * @param rank The position of this process in the ring.
+     * @param worldSize The number of processes.
+     * @param basePort The port of rank 0, rank i listens on basePort + i.
+     * @return the connected ring.
+     * @throws IOException if the ring could not be connected.
+     */
+    public static RingAllReduce local(int rank, int worldSize, int basePort) throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < worldSize; i++) {
+            addresses.add(new InetSocketAddress("127.0.0.1", basePort + i));
+        }
+
+        return new RingAllReduce(rank, addresses);
+    }
+
+    /**
+     * Joins the ring a launcher describes in the environment of each process
+     * it starts: RANK and WORLD_SIZE, and either RING_ADDRESSES, the
+     * comma-separated host:port every rank listens on in rank order, or
+     * BASE_PORT for a ring of processes on this machine, see local.
+     *
+     * @return the connected ring.
+     * @throws IOException if the ring could not be connected.
+     */
+    public static RingAllReduce fromEnvironment() throws IOException {
+        return fromEnvironment(System.getenv());
+    }
+
+    /**
+     * Joins the ring described by the variables, see fromEnvironment().
+     *
+     * @param environment The variables describing the ring.
+     * @return the connected ring.
+     * @throws IOException if the ring could not be connected.
+     */
+    public static RingAllReduce fromEnvironment(Map<String, String> environment) throws IOException {
+        int rank = intVariable(environment, "RANK");
+        int worldSize = intVariable(environment, "WORLD_SIZE");
+        if (rank < 0 || rank >= worldSize) {
+            throw new IllegalArgumentException("RANK " + rank + " is not in a ring of WORLD_SIZE " + worldSize + ".");
+        }
+
+        String ring = environment.get("RING_ADDRESSES");
+        if (ring == null) {
+            return local(rank, worldSize, intVariable(environment, "BASE_PORT"));
+        }
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String address : ring.split(",")) {
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("RING_ADDRESSES has no port in " + address + ".");
+            }
+            addresses.add(new InetSocketAddress(address.substring(0, colon).trim(),
+                    Integer.parseInt(address.substring(colon + 1).trim())));
+        }
+        if (addresses.size() != worldSize) {
+            throw new IllegalArgumentException("RING_ADDRESSES has " + addresses.size() + " addresses for WORLD_SIZE " + worldSize + ".");
+        }
+
+        return new RingAllReduce(rank, addresses);
+    }
+
+    private static int intVariable(Map<String, String> environment, String name) {
+        String value = environment.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException(name + " is not set.");
+        }
+
+        return Integer.parseInt(value.trim());
+    }
+
+    private static Socket connect(InetSocketAddress address) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (ConnectException e) {
+                socket.close();
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while connecting to " + address + ".", interrupted);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the values with their element-wise sum over all ranks,
+     * summed in the data type of the values. Every rank has to call this
+     * with an array of the same length and data type, and all ranks have to
+     * reduce their arrays in the same order.
+     *
+     * @param values The values of this rank, a contiguous array, overwritten with the sum.
+     * @throws IOException if a neighbour could not be reached.
+     */
+    public void allReduce(INDArray values) throws IOException {
+        if (values.ordering() != 'c' || values.elementWiseStride() != 1) {
+            throw new IllegalArgumentException("allReduce needs a contiguous array, e.g. a dup() of a view.");
+        }
+        if (worldSize == 1) {
+            return;
+        }
+
+        INDArray flat = values.reshape(values.length());
+        int[] starts = new int[worldSize + 1];
+        for (int i = 0; i <= worldSize; i++) {
+            starts[i] = (int) (flat.length() * i / worldSize);
+        }
+        INDArray received = NativeExecution.run(() -> Nd4j.create(flat.dataType(), starts[1] + 1));
+
+        for (int step = 0; step < worldSize - 1; step++) {
+            int send = Math.floorMod(rank - step, worldSize);
+            int receive = Math.floorMod(rank - step - 1, worldSize);
+            exchange(flat, starts[send], starts[send + 1], starts[receive], starts[receive + 1], received);
+        }
+
+        for (int step = 0; step < worldSize - 1; step++) {
+            int send = Math.floorMod(rank - step + 1, worldSize);
+            int receive = Math.floorMod(rank - step, worldSize);
+            exchange(flat, starts[send], starts[send + 1], starts[receive], starts[receive + 1], null);
+        }
+    }
+
+    /**
+     * Sends a chunk of the values to the next rank while receiving another
+     * one from the previous rank. The received chunk is added through the
+     * scratch array, or stored when there is none.
+     */
+    private void exchange(INDArray values, int sendFrom, int sendTo, int receiveFrom, int receiveTo, INDArray scratch) throws IOException {
+        int width = values.dataType().width();
+        ByteBuffer buffer = values.data().asNio();
+        int base = (int) values.offset() * width;
+        Future<?> sent = sender.submit(() -> {
+            byte[] bytes = new byte[(sendTo - sendFrom) * width];
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.position(base + sendFrom * width);
+            chunk.get(bytes);
+            next.write(bytes);
+            next.flush();
+            return null;
+        });
+
+        byte[] bytes = new byte[(receiveTo - receiveFrom) * width];
+        previous.readFully(bytes);
+        if (scratch == null) {
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.position(base + receiveFrom * width);
+            chunk.put(bytes);
+        } else if (bytes.length > 0) {
+            ByteBuffer chunk = scratch.data().asNio().duplicate();
+            chunk.position((int) scratch.offset() * width);
+            chunk.put(bytes);
+            NativeExecution.execute(() -> values.get(NDArrayIndex.interval(receiveFrom, receiveTo))
+                    .addi(scratch.get(NDArrayIndex.interval(0, receiveTo - receiveFrom))));
+        }
+
+        try {
+            sent.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending to the next rank.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Sending to the next rank failed.", e.getCause());
+        }
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public int getWorldSize() {
+        return worldSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sender.shutdownNow();
+        if (server != null) {
+            nextSocket.close();
+            previousSocket.close();
+            server.close();
+        }
+    }
+}
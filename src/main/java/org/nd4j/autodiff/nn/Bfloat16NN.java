@@ -0,0 +1,151 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.ops.SDNN;
+
+/**
+ * The neural network ops of a module running in BFLOAT16.
+ *
+ * The backward ops of most of ND4J's activations, e.g. thresholdedrelu_bp
+ * behind relu, do not accept BFLOAT16 gradients. The activations below are
+ * recorded with element-wise ops whose backward passes do: relu, relu6,
+ * leakyRelu, elu, selu, sigmoid, logSigmoid, hardSigmoid, tanh and
+ * hardTanh. softsign has no such form and fails when recorded. The same
+ * ops of the math namespace, e.g. math.tanh, are not replaced.
+ */
+class Bfloat16NN extends SDNN {
+    private static final double SELU_ALPHA = 1.6732632423543772;
+    private static final double SELU_SCALE = 1.0507009873554805;
+
+    private final SameDiff sd;
+
+    Bfloat16NN(SameDiff sd) {
+        super(sd);
+        this.sd = sd;
+    }
+
+    @Override
+    public SDVariable relu(SDVariable x, double cutoff) {
+        return relu(null, x, cutoff);
+    }
+
+    @Override
+    public SDVariable relu(String name, SDVariable x, double cutoff) {
+        // max(x, cutoff), as ND4J's relu computes it.
+        SDVariable above = sd.math().step(x, cutoff);
+        return named(name, cutoff == 0.0 ? x.mul(above) : x.sub(cutoff).mul(above).add(cutoff));
+    }
+
+    @Override
+    public SDVariable relu6(SDVariable x, double cutoff) {
+        return relu6(null, x, cutoff);
+    }
+
+    @Override
+    public SDVariable relu6(String name, SDVariable x, double cutoff) {
+        SDVariable relu = relu(null, x, cutoff);
+        return named(name, relu.sub(relu(null, relu.sub(6.0), 0.0)));
+    }
+
+    @Override
+    public SDVariable leakyRelu(SDVariable x, double alpha) {
+        return leakyRelu(null, x, alpha);
+    }
+
+    @Override
+    public SDVariable leakyRelu(String name, SDVariable x, double alpha) {
+        return named(name, relu(null, x, 0.0).sub(relu(null, x.neg(), 0.0).mul(alpha)));
+    }
+
+    @Override
+    public SDVariable elu(SDVariable x) {
+        return elu(null, x);
+    }
+
+    @Override
+    public SDVariable elu(String name, SDVariable x) {
+        return named(name, relu(null, x, 0.0).add(negativeExp(x)));
+    }
+
+    @Override
+    public SDVariable selu(SDVariable x) {
+        return selu(null, x);
+    }
+
+    @Override
+    public SDVariable selu(String name, SDVariable x) {
+        return named(name, relu(null, x, 0.0).add(negativeExp(x).mul(SELU_ALPHA)).mul(SELU_SCALE));
+    }
+
+    @Override
+    public SDVariable sigmoid(SDVariable x) {
+        return sigmoid(null, x);
+    }
+
+    @Override
+    public SDVariable sigmoid(String name, SDVariable x) {
+        return named(name, sd.math().exp(x.neg()).add(1.0).rdiv(1.0));
+    }
+
+    @Override
+    public SDVariable logSigmoid(SDVariable x) {
+        return logSigmoid(null, x);
+    }
+
+    @Override
+    public SDVariable logSigmoid(String name, SDVariable x) {
+        return named(name, softplus(null, x.neg()).neg());
+    }
+
+    @Override
+    public SDVariable hardSigmoid(SDVariable x) {
+        return hardSigmoid(null, x);
+    }
+
+    @Override
+    public SDVariable hardSigmoid(String name, SDVariable x) {
+        return named(name, sd.math().clipByValue(x.mul(0.2).add(0.5), 0.0, 1.0));
+    }
+
+    @Override
+    public SDVariable tanh(SDVariable x) {
+        return tanh(null, x);
+    }
+
+    @Override
+    public SDVariable tanh(String name, SDVariable x) {
+        return named(name, sigmoid(null, x.mul(2.0)).mul(2.0).sub(1.0));
+    }
+
+    @Override
+    public SDVariable hardTanh(SDVariable x) {
+        return hardTanh(null, x);
+    }
+
+    @Override
+    public SDVariable hardTanh(String name, SDVariable x) {
+        return named(name, sd.math().clipByValue(x, -1.0, 1.0));
+    }
+
+    @Override
+    public SDVariable softsign(SDVariable x) {
+        return softsign(null, x);
+    }
+
+    @Override
+    public SDVariable softsign(String name, SDVariable x) {
+        throw new InvalidModuleException("softsign can not be trained in BFLOAT16, use FLOAT16 or another activation.");
+    }
+
+    /**
+     * @return exp(min(x, 0)) - 1, the negative part of elu.
+     */
+    private SDVariable negativeExp(SDVariable x) {
+        return sd.math().exp(relu(null, x.neg(), 0.0).neg()).sub(1.0);
+    }
+
+    private SDVariable named(String name, SDVariable variable) {
+        return name != null ? sd.updateVariableNameAndReference(variable, name) : variable;
+    }
+}
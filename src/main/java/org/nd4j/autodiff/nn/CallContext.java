@@ -0,0 +1,41 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Map;
+
+/**
+ * The state of a single call of a module: the tape that ran and the
+ * placeholder values it ran with.
+ *
+ * Every call gets its own context, so threads calling the same module do
+ * not see each other's inputs. The last context of each thread is kept for
+ * its backward pass, together with the checkpointed models that produced
+ * its inputs, which backward continues into.
+ */
+class CallContext {
+    final RecordedGraph graph;
+    final Map<String, INDArray> placeHolders;
+    final Map<Integer, Sequential> producers;
+
+    CallContext(RecordedGraph graph, Map<String, INDArray> placeHolders, Map<Integer, Sequential> producers) {
+        this.graph = graph;
+        this.placeHolders = placeHolders;
+        this.producers = producers;
+    }
+
+    INDArray[] execute() {
+        String[] names = new String[graph.outputs.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = graph.outputs[i].name();
+        }
+
+        Map<String, INDArray> outputMap = NativeExecution.run(() -> graph.tape.output(placeHolders, names));
+        INDArray[] results = new INDArray[names.length];
+        for (int i = 0; i < names.length; i++) {
+            results[i] = outputMap.get(names[i]);
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,100 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.autodiff.eager.Tensor;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * A segment of a model whose intermediate activations are not kept for
+ * backward.
+ *
+ * Calling the checkpoint runs the segment and keeps only its input.
+ * backward(outputGradient) recomputes the forward pass of the segment from
+ * that input while computing the gradients, so only the activations of one
+ * segment are alive at a time. Chained checkpoints, e.g. the segments of a
+ * Sequential with checkpoint segments, keep one activation per segment.
+ * The random state of the call is kept too and replayed for the
+ * recomputation, so e.g. Dropout2D draws the same mask again.
+ *
+ * Recorded inside another module's forward pass the checkpoint is just its
+ * segment, and the activations are kept as usual.
+ */
+public class Checkpoint extends Module {
+    @Mod final Module body;
+    private ThreadLocal<INDArray> lastInput = new ThreadLocal<>();
+    private ThreadLocal<long[]> lastRandomState = new ThreadLocal<>();
+    private PipelineStage stage;
+
+    public Checkpoint(Module body) {
+        super();
+        this.body = body;
+    }
+
+    @Override
+    protected Tensor forward(Tensor in) {
+        return body.forward(in);
+    }
+
+    /**
+     * Runs the segment, keeping the input for backward(outputGradient)
+     * instead of the activations.
+     */
+    @Override
+    public INDArray call(INDArray input) {
+        Random random = Nd4j.getRandom();
+        lastInput.set(input);
+        lastRandomState.set(new long[]{random.rootState(), random.nodeState()});
+        return body.call(input);
+    }
+
+    /**
+     * Computes the gradients of the segment's parameters for the last call
+     * made on the current thread, recomputing its activations on the way.
+     *
+     * @param outputGradient The gradient of the loss with respect to the output of the last call.
+     * @return the gradient of the loss with respect to the input of the last call.
+     */
+    public INDArray backward(INDArray outputGradient) {
+        INDArray input = lastInput.get();
+        if (input == null) {
+            throw new InvalidModuleException("Checkpoint.backward needs a call on the same thread first.");
+        }
+
+        Random random = Nd4j.getRandom();
+        long[] state = lastRandomState.get();
+        long rootState = random.rootState();
+        long nodeState = random.nodeState();
+        PipelineStage recompute = stage();
+        recompute.train(getTrain());
+        try {
+            // Both the call and backward run the forward pass of the segment.
+            random.setStates(state[0], state[1]);
+            recompute.call(input, outputGradient);
+            random.setStates(state[0], state[1]);
+            return recompute.backward(0)[0];
+        } finally {
+            random.setStates(rootState, nodeState);
+            lastInput.remove();
+            lastRandomState.remove();
+        }
+    }
+
+    private synchronized PipelineStage stage() {
+        if (stage == null) {
+            stage = new PipelineStage(body);
+        }
+
+        return stage;
+    }
+
+    @Override
+    public Module replica() {
+        Checkpoint replica = (Checkpoint) super.replica();
+        replica.lastInput = new ThreadLocal<>();
+        replica.lastRandomState = new ThreadLocal<>();
+        replica.stage = null;
+
+        return replica;
+    }
+}
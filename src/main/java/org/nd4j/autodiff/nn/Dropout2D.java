@@ -2,7 +2,7 @@ package org.nd4j.autodiff.nn;
 
 import org.nd4j.autodiff.eager.Tensor;
 import org.nd4j.autodiff.samediff.SDVariable;
-import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ops.random.custom.RandomBernoulli;
 
 public class Dropout2D extends Module {
     private final double keepProbability;
@@ -19,7 +19,9 @@ public class Dropout2D extends Module {
     @Override
     protected Tensor forward(Tensor in) {
         if (getTrain()) {
-            SDVariable bernoulli = random.bernoulli(keepProbability, DataType.FLOAT, in.getShape());
+            // Takes the mask shape from the graph so the recorded tape works for any batch size.
+            SDVariable bernoulli = new RandomBernoulli(in.getSameDiff(), in.shape(), keepProbability).outputVariable()
+                    .castTo(in.dataType());
 
             return t(in.mul(bernoulli));
         } else {
@@ -0,0 +1,128 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The parameters of a module packed into one contiguous buffer.
+ *
+ * Every parameter's array is a view into the values buffer and its
+ * gradient a view into the gradients buffer, so code that handles all
+ * parameters at once, like an optimizer, can work on the two buffers with
+ * single native calls instead of looping over the parameters.
+ *
+ * Flattening replaces the array of every parameter with its view. Tapes
+ * recorded before hold the old arrays, so each of them attaches the new
+ * arrays on its next call (RecordedGraph.attach), and a tape that folded a
+ * frozen parameter into a constant is recorded again. Replicas created
+ * before flattening keep the old arrays, so flatten first.
+ *
+ * Create it with Module.flattenParameters.
+ */
+public class FlatParameters extends AbstractCollection<Parameter> {
+    private final List<Parameter> parameters;
+    private final INDArray values;
+    private final INDArray gradients;
+    private final Parameter flat;
+
+    FlatParameters(Collection<Parameter> parameters) {
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+
+        DataType dataType = null;
+        long length = 0;
+        for (Parameter p : this.parameters) {
+            INDArray array = p.getArr();
+            if (dataType == null) {
+                dataType = array.dataType();
+            } else if (dataType != array.dataType()) {
+                throw new InvalidModuleException("Parameters of type " + dataType + " and " + array.dataType()
+                        + " can not share one buffer.");
+            }
+            length += array.length();
+        }
+        if (dataType == null) {
+            throw new InvalidModuleException("The module has no parameters to flatten.");
+        }
+
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            values = Nd4j.createUninitialized(dataType, length);
+            gradients = Nd4j.zeros(dataType, length);
+        }
+
+        long offset = 0;
+        for (Parameter p : this.parameters) {
+            INDArray array = p.getArr();
+            long end = offset + array.length();
+
+            INDArray value = values.get(NDArrayIndex.interval(offset, end)).reshape('c', array.shape());
+            value.assign(array);
+            INDArray gradient = gradients.get(NDArrayIndex.interval(offset, end)).reshape('c', array.shape());
+            if (p.hasGradient()) {
+                gradient.assign(p.getGrad());
+            }
+
+            p.setArray(value);
+            p.setGrad(gradient);
+            offset = end;
+        }
+
+        flat = new TensorParameter(length);
+        flat.setArray(values);
+        flat.setGrad(gradients);
+    }
+
+    /**
+     * @return the buffer holding the values of all parameters.
+     */
+    public INDArray getValues() {
+        return values;
+    }
+
+    /**
+     * @return the buffer holding the gradients of all parameters.
+     */
+    public INDArray getGradients() {
+        return gradients;
+    }
+
+    /**
+     * @return a single parameter whose array and gradient are the whole buffers.
+     */
+    public Parameter asParameter() {
+        return flat;
+    }
+
+    /**
+     * @return true if every parameter is trained, so the buffers can be
+     * updated as a whole.
+     */
+    public boolean allRequireGrad() {
+        for (Parameter p : parameters) {
+            if (!p.isRequiresGrad()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public Iterator<Parameter> iterator() {
+        return parameters.iterator();
+    }
+
+    @Override
+    public int size() {
+        return parameters.size();
+    }
+}
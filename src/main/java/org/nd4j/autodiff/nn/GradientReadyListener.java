@@ -0,0 +1,143 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.autodiff.listeners.At;
+import org.nd4j.autodiff.listeners.BaseListener;
+import org.nd4j.autodiff.listeners.Operation;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.OpContext;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hands each parameter gradient to its parameter the moment the backward
+ * pass produces it, and fires the parameter's gradient hooks once no op
+ * of the pass reads the parameter anymore.
+ *
+ * The gradient of a weight can be final before the op computing the
+ * gradient of the weight's input ran, e.g. when xw_plus_b is differentiated
+ * into separate matmuls, and that op still reads the weight. Hooks may
+ * update the parameter in place, so they wait until every op reading it
+ * executed. Parameters with an op that never runs get their hooks fired
+ * when the pass ends.
+ */
+class GradientReadyListener extends BaseListener {
+    private final Map<String, Parameter> parameters = new HashMap<>();
+    private final Map<Parameter, String> variableNames = new IdentityHashMap<>();
+    private final ThreadLocal<Pass> pass = new ThreadLocal<>();
+    private volatile Map<Parameter, List<String>> readers;
+
+    /**
+     * The state of one backward pass on one thread.
+     */
+    private static class Pass {
+        final Set<Parameter> delivered = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<String> executed = new HashSet<>();
+        final List<Parameter> waiting = new ArrayList<>();
+    }
+
+    GradientReadyListener(RecordedGraph recorded) {
+        for (int i = 0; i < recorded.parameters.length; i++) {
+            SDVariable gradient = recorded.tape.getVariable(recorded.variableNames[i]).getGradient();
+            if (gradient != null) {
+                parameters.put(gradient.name(), recorded.parameters[i]);
+                variableNames.put(recorded.parameters[i], recorded.variableNames[i]);
+            }
+        }
+    }
+
+    /**
+     * Starts listening for the gradients of a backward pass on this thread.
+     */
+    void begin() {
+        pass.set(new Pass());
+    }
+
+    /**
+     * Fires the hooks of the parameters still waiting for an op that did
+     * not run.
+     *
+     * @return the parameters whose gradients were delivered since begin().
+     */
+    Set<Parameter> end() {
+        Pass current = pass.get();
+        pass.remove();
+        for (Parameter parameter : current.waiting) {
+            parameter.fireGradientHooks();
+        }
+
+        return current.delivered;
+    }
+
+    @Override
+    public boolean isActive(Operation operation) {
+        return true;
+    }
+
+    @Override
+    public void opExecution(SameDiff sd, At at, MultiDataSet batch, SameDiffOp op, OpContext opContext, INDArray[] outputs) {
+        Pass current = pass.get();
+        if (current == null) {
+            return;
+        }
+
+        current.executed.add(op.getName());
+        Iterator<Parameter> waiting = current.waiting.iterator();
+        while (waiting.hasNext()) {
+            Parameter parameter = waiting.next();
+            if (current.executed.containsAll(readers(sd).get(parameter))) {
+                waiting.remove();
+                parameter.fireGradientHooks();
+            }
+        }
+    }
+
+    @Override
+    public void activationAvailable(SameDiff sd, At at, MultiDataSet batch, SameDiffOp op, String varName, INDArray activation) {
+        Pass current = pass.get();
+        Parameter parameter = parameters.get(varName);
+        if (current != null && parameter != null && parameter.isRequiresGrad() && current.delivered.add(parameter)) {
+            parameter.updateGrad(activation);
+            if (current.executed.containsAll(readers(sd).get(parameter))) {
+                parameter.fireGradientHooks();
+            } else {
+                current.waiting.add(parameter);
+            }
+        }
+    }
+
+    /**
+     * Finds the ops of the executed graph that read each parameter, once.
+     */
+    private Map<Parameter, List<String>> readers(SameDiff sd) {
+        Map<Parameter, List<String>> ret = readers;
+        if (ret == null) {
+            synchronized (this) {
+                if (readers == null) {
+                    Map<Parameter, List<String>> found = new IdentityHashMap<>();
+                    for (Map.Entry<Parameter, String> entry : variableNames.entrySet()) {
+                        Variable variable = sd.getVariables().get(entry.getValue());
+                        List<String> ops = variable != null ? variable.getInputsForOp() : null;
+                        found.put(entry.getKey(), ops != null ? ops : Collections.<String>emptyList());
+                    }
+                    readers = found;
+                }
+                ret = readers;
+            }
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,99 @@
+package org.nd4j.autodiff.nn;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of recorded tapes keyed by their input signature.
+ *
+ * Used by Module.apply so that calls with an input signature that was seen
+ * before reuse the tape instead of recording the forward pass again.
+ */
+public class GraphCache {
+    private final LinkedHashMap<GraphSignature, RecordedGraph> graphs;
+    private int capacity;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public GraphCache(int capacity) {
+        this.capacity = capacity;
+        this.graphs = new LinkedHashMap<GraphSignature, RecordedGraph>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GraphSignature, RecordedGraph> eldest) {
+                if (size() > GraphCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    RecordedGraph get(GraphSignature signature) {
+        RecordedGraph graph = graphs.get(signature);
+        if (graph == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return graph;
+    }
+
+    void put(GraphSignature signature, RecordedGraph graph) {
+        if (capacity > 0) {
+            graphs.put(signature, graph);
+        }
+    }
+
+    /**
+     * Changes the number of tapes kept, evicting the least recently used
+     * ones if the cache is now over capacity. A capacity of 0 disables
+     * caching.
+     *
+     * @param capacity the maximum number of tapes to keep.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        while (graphs.size() > capacity) {
+            GraphSignature eldest = graphs.keySet().iterator().next();
+            graphs.remove(eldest);
+            evictions++;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return graphs.size();
+    }
+
+    /**
+     * Drops every cached tape. Needed when the structure of the module
+     * changes, since the cached tapes no longer match its forward pass.
+     */
+    public void clear() {
+        graphs.clear();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GraphCache(size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d)",
+                graphs.size(), capacity, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,123 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Arrays;
+
+/**
+ * The key a recorded tape is cached under.
+ *
+ * Two calls with the same signature record exactly the same graph, so the
+ * tape recorded by the first one can be reused by the second.
+ */
+public final class GraphSignature {
+    private final long[][] shapes;
+    private final DataType[] dataTypes;
+    private final boolean training;
+    private final boolean multiOutput;
+    private final int hash;
+
+    GraphSignature(long[][] shapes, DataType[] dataTypes, boolean training, boolean multiOutput) {
+        this.shapes = shapes;
+        this.dataTypes = dataTypes;
+        this.training = training;
+        this.multiOutput = multiOutput;
+
+        int h = Arrays.deepHashCode(shapes);
+        h = 31 * h + Arrays.hashCode(dataTypes);
+        h = 31 * h + (training ? 1 : 0);
+        h = 31 * h + (multiOutput ? 1 : 0);
+        this.hash = h;
+    }
+
+    /**
+     * Builds the signature of the inputs. The dynamic axes of every input
+     * are recorded as -1, so inputs that only differ along those axes share
+     * a signature and with it a recorded tape.
+     */
+    static GraphSignature of(INDArray[] inputs, int[] dynamicAxes, boolean training, boolean multiOutput) {
+        long[][] shapes = new long[inputs.length][];
+        DataType[] dataTypes = new DataType[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            long[] shape = inputs[i].shape().clone();
+            for (int axis : dynamicAxes) {
+                if (axis < shape.length) {
+                    shape[axis] = -1;
+                }
+            }
+            shapes[i] = shape;
+            dataTypes[i] = inputs[i].dataType();
+        }
+
+        return new GraphSignature(shapes, dataTypes, training, multiOutput);
+    }
+
+    /**
+     * @return the number of inputs the graph was recorded with.
+     */
+    public int inputCount() {
+        return shapes.length;
+    }
+
+    /**
+     * @return the placeholder shape of the input, -1 on the dynamic axes.
+     */
+    public long[] shape(int input) {
+        return shapes[input];
+    }
+
+    public DataType dataType(int input) {
+        return dataTypes[input];
+    }
+
+    public boolean isTraining() {
+        return training;
+    }
+
+    /**
+     * @return true if the graph was recorded through apply(INDArray[]).
+     */
+    public boolean isMultiOutput() {
+        return multiOutput;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GraphSignature)) {
+            return false;
+        }
+
+        GraphSignature other = (GraphSignature) o;
+        return hash == other.hash
+                && training == other.training
+                && multiOutput == other.multiOutput
+                && Arrays.equals(dataTypes, other.dataTypes)
+                && Arrays.deepEquals(shapes, other.shapes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < shapes.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(dataTypes[i]).append(Arrays.toString(shapes[i]));
+        }
+        sb.append(training ? ", train" : ", eval");
+        if (multiOutput) {
+            sb.append(", multi");
+        }
+
+        return sb.append(")").toString();
+    }
+}
@@ -3,10 +3,18 @@ package org.nd4j.autodiff.nn;
 import org.nd4j.autodiff.eager.Tensor;
 import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.weightinit.impl.ReluUniformInitScheme;
 import org.nd4j.weightinit.impl.UniformInitScheme;
 
+/**
+ * Applies a linear transformation to the input: y = xW^T + b.
+ *
+ * The weight is stored as [inFeatures, outFeatures], the layout the matmul
+ * consumes, so no transpose is recorded or computed on each pass.
+ * getWeight and setWeight use the usual [outFeatures, inFeatures] layout.
+ */
 public class Linear extends Module {
     long inFeatures;
     long outFeatures;
@@ -18,7 +26,7 @@ public class Linear extends Module {
         super();
         this.inFeatures = inFeatures;
         this.outFeatures = outFeatures;
-        this.weight = new TensorParameter(outFeatures, inFeatures);
+        this.weight = new TensorParameter(inFeatures, outFeatures);
         if (bias) {
             this.bias = new TensorParameter(outFeatures);
         }
@@ -32,9 +40,9 @@ public class Linear extends Module {
     @Override
     protected Tensor forward(Tensor input) {
         if (bias != null) {
-            return t(nn.linear(input, input.getSameDiff().transpose(weight), bias));
+            return t(nn.linear(input, weight, bias));
         } else {
-            return t(input.mmul(input.getSameDiff().transpose(weight)));
+            return t(input.mmul(weight));
         }
     }
 
@@ -50,6 +58,23 @@ public class Linear extends Module {
         }
     }
 
+    /**
+     * @return a [outFeatures, inFeatures] view of the weight.
+     */
+    public INDArray getWeight() {
+        return weight.getArr().transpose();
+    }
+
+    /**
+     * Copies a [outFeatures, inFeatures] weight into this layer. The values
+     * are assigned in place, so recorded tapes stay valid.
+     *
+     * @param weight The weight to load.
+     */
+    public void setWeight(INDArray weight) {
+        this.weight.getArr().assign(weight.transpose());
+    }
+
     @Override
     public String toString() {
         return String.format("inFeatures=%d, outFeatures=%d, bias=%b", inFeatures, outFeatures, bias != null);
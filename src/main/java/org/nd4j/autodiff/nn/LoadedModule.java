@@ -0,0 +1,87 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.autodiff.eager.Tensor;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A module restored from a file written by Module.export.
+ *
+ * The graph has placeholders input0..inputN and the exported outputs
+ * output0..outputN, it is executed directly on every call.
+ */
+class LoadedModule extends Module {
+    private final SameDiff sd;
+    private final String[] outputNames;
+
+    LoadedModule(SameDiff sd) {
+        super();
+        this.sd = sd;
+
+        List<String> names = new ArrayList<>();
+        while (sd.hasVariable("output" + names.size())) {
+            names.add("output" + names.size());
+        }
+        if (names.isEmpty()) {
+            throw new InvalidModuleException("The loaded graph has no outputs, it was not written by Module.export.");
+        }
+        outputNames = names.toArray(new String[0]);
+
+        train(false);
+    }
+
+    @Override
+    public INDArray call(INDArray input) {
+        return run(input)[0];
+    }
+
+    @Override
+    public INDArray call(INDArray firstInput, INDArray secondInput) {
+        return run(firstInput, secondInput)[0];
+    }
+
+    @Override
+    public INDArray[] call(INDArray[] inputs) {
+        return run(inputs);
+    }
+
+    private INDArray[] run(INDArray... inputs) {
+        Map<String, INDArray> placeHolders = new HashMap<>();
+        for (int i = 0; i < inputs.length; i++) {
+            placeHolders.put("input" + i, inputs[i]);
+        }
+
+        Map<String, INDArray> outputMap = NativeExecution.run(() -> sd.output(placeHolders, outputNames));
+        INDArray[] results = new INDArray[outputNames.length];
+        for (int i = 0; i < outputNames.length; i++) {
+            results[i] = outputMap.get(outputNames[i]);
+        }
+
+        return results;
+    }
+
+    @Override
+    public SameDiff getTape() {
+        return sd;
+    }
+
+    @Override
+    public Tensor apply(INDArray input) {
+        throw new InvalidModuleException("A loaded module has no forward pass to record, use call instead.");
+    }
+
+    @Override
+    public Tensor apply(INDArray firstInput, INDArray secondInput) {
+        throw new InvalidModuleException("A loaded module has no forward pass to record, use call instead.");
+    }
+
+    @Override
+    public Tensor[] apply(INDArray[] inputs) {
+        throw new InvalidModuleException("A loaded module has no forward pass to record, use call instead.");
+    }
+}
@@ -1,18 +1,33 @@
 package org.nd4j.autodiff.nn;
 
 import org.nd4j.autodiff.eager.Tensor;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.passes.PassPipeline;
 import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.array.SingleThreadArrayHolder;
 import org.nd4j.autodiff.samediff.ops.*;
 import org.nd4j.common.function.Consumer;
 import org.nd4j.common.primitives.Pair;
 import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.loss.BaseLoss;
 import org.nd4j.linalg.factory.Nd4j;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -38,7 +53,19 @@ import java.util.*;
  *    }
  * }
  */
-public abstract class Module {
+public abstract class Module implements Cloneable {
+    /**
+     * Number of recorded tapes kept per module, enough for the handful of
+     * batch shapes a training or serving loop usually sees.
+     */
+    public static final int DEFAULT_GRAPH_CACHE_SIZE = 8;
+
+    /**
+     * Name of the placeholder the losses are multiplied with in
+     * mixed-precision training.
+     */
+    public static final String LOSS_SCALE = "lossScale";
+
     protected DataType dataType;
     protected SDNN nn;
     protected SDCNN cnn;
@@ -51,14 +78,28 @@ public abstract class Module {
 
     private boolean training = true;
     private boolean dynamic = true;
+    private long retraces;
+    private int[] dynamicAxes = {0};
     private LinkedHashMap<String, Field> parameters;
     private LinkedHashMap<String, Field> buffers;
     private LinkedHashMap<String, Field> modules;
     private SameDiff tape;
+    private volatile RecordedGraph graph;
+    private GraphCache graphCache;
+    private PassPipeline graphPasses;
+    private FlatParameters flatParameters;
+    private boolean mixedPrecision;
+    private volatile double lossScale = 1.0;
+    private Executor callExecutor;
+    private static ExecutorService defaultCallExecutor;
+    private static final AtomicLong moduleIds = new AtomicLong();
+    private long id = moduleIds.getAndIncrement();
+    private ReentrantLock recordLock = new ReentrantLock();
 
-    private Tensor output;
-    private Tensor[] outputs;
-    static private HashMap<String, INDArray> placeHolders;
+    private ThreadLocal<CallContext> lastCall = new ThreadLocal<>();
+    private static final ThreadLocal<Map<String, INDArray>> recordingPlaceHolders = new ThreadLocal<>();
+    private static final ThreadLocal<Map<INDArray, Sequential>> checkpointedOutputs =
+            ThreadLocal.withInitial(IdentityHashMap::new);
     private String name = "root";
 
     protected Module() {
@@ -66,6 +107,7 @@ public abstract class Module {
         parameters = new LinkedHashMap<>();
         buffers = new LinkedHashMap<>();
         modules = new LinkedHashMap<>();
+        graphCache = new GraphCache(DEFAULT_GRAPH_CACHE_SIZE);
 
         for (Field f : this.getClass().getDeclaredFields()) {
             for (Annotation a : f.getDeclaredAnnotations()) {
@@ -130,62 +172,157 @@ public abstract class Module {
         this.name = name;
     }
 
+    /**
+     * Computes the gradients of the last call made on the current thread.
+     *
+     * The gradient hooks of every parameter fire as soon as its gradient is
+     * final, while the backward pass continues with the other parameters.
+     * When the call was made with the output of a checkpointed Sequential,
+     * e.g. criterion.call(model.call(x), labels), backward continues into
+     * that model.
+     */
     public void backward() {
-        if (training) {
-            List<String> parameterNames = new ArrayList<>();
-            for (Parameter p : parameters()) {
-                if (p.isRequiresGrad()) {
-                    parameterNames.add(p.name());
-                }
+        backward(new int[0]);
+    }
+
+    /**
+     * Computes the gradients of the last call made on the current thread
+     * like backward() and also returns the gradients of some of its inputs,
+     * e.g. to continue backpropagation into the module that produced them.
+     * Also works for modules without trained parameters, so backward(0) of
+     * a loss around an Identity is the gradient of the loss with respect to
+     * the output it was called with.
+     *
+     * @param inputs The indices of the inputs to return the gradients of.
+     * @return the input gradients, null when not training or nothing was called yet.
+     */
+    public INDArray[] backward(int... inputs) {
+        CallContext context = lastCall.get();
+        if (!training || context == null) {
+            return new INDArray[inputs.length];
+        }
+
+        int[] gradientInputs = inputs;
+        for (int input : context.producers.keySet()) {
+            if (indexOf(gradientInputs, input) < 0) {
+                gradientInputs = Arrays.copyOf(gradientInputs, gradientInputs.length + 1);
+                gradientInputs[gradientInputs.length - 1] = input;
             }
-            tape.calculateGradients(placeHolders, parameterNames);
         }
+
+        INDArray[] inputGradients = backward(context, gradientInputs);
+        for (Map.Entry<Integer, Sequential> producer : context.producers.entrySet()) {
+            INDArray gradient = inputGradients[indexOf(gradientInputs, producer.getKey())];
+            if (gradient != null) {
+                producer.getValue().backward(gradient);
+            }
+        }
+
+        return Arrays.copyOf(inputGradients, inputs.length);
     }
 
-    public Tensor apply(final INDArray input) {
-        if (dynamic || getTape() == null || output == null) {
-            setTape(SameDiff.create());
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Remembers the output of a checkpointed call of the model on the
+     * current thread, replacing the one of its previous call, so backward
+     * of a module called with it continues into the model.
+     *
+     * @param output The output of the call, null to forget the previous one.
+     */
+    static void checkpointedOutput(Sequential model, INDArray output) {
+        Map<INDArray, Sequential> outputs = checkpointedOutputs.get();
+        outputs.values().removeIf(producer -> producer == model);
+        if (output != null) {
+            outputs.put(output, model);
+        }
+    }
 
-            placeHolders = new HashMap<String, INDArray>() {{
-                put("input0", input);
-            }};
+    /**
+     * Computes the parameter gradients of a call and the gradients of the
+     * given inputs.
+     */
+    private INDArray[] backward(CallContext context, int[] inputs) {
+        INDArray[] inputGradients = new INDArray[inputs.length];
+        RecordedGraph recorded = context.graph;
+        List<String> variableNames = new ArrayList<>();
+        for (int i = 0; i < recorded.parameters.length; i++) {
+            if (recorded.parameters[i].isRequiresGrad()) {
+                variableNames.add(recorded.variableNames[i]);
+            }
+        }
+        List<String> inputNames = new ArrayList<>();
+        for (int input : inputs) {
+            inputNames.add("input" + input);
+        }
+
+        Map<String, INDArray> placeHolders = context.placeHolders;
+        if (variableNames.isEmpty()) {
+            if (!inputNames.isEmpty()) {
+                Map<String, INDArray> gradients = recorded.inputGradients(placeHolders, inputNames);
+                for (int i = 0; i < inputs.length; i++) {
+                    inputGradients[i] = gradients.get(inputNames.get(i));
+                }
+            }
+
+            return inputGradients;
+        }
+        variableNames.addAll(inputNames);
 
-            applyToModules(this::setupParameters);
-            Tensor placeHolder = t(tape.placeHolder("input0", input.dataType(), input.shape()));
-            output = forward(placeHolder);
+        recorded.prepareGradients();
+        Map<String, INDArray> gradients;
+        Set<Parameter> delivered;
+        recorded.gradientListener.begin();
+        try {
+            Map<String, INDArray> values = placeHolders;
+            gradients = NativeExecution.run(() -> recorded.tape.calculateGradients(values, variableNames));
+        } finally {
+            delivered = recorded.gradientListener.end();
         }
 
-        return output;
+        for (int i = 0; i < recorded.parameters.length; i++) {
+            INDArray gradient = gradients.get(recorded.variableNames[i]);
+            Parameter parameter = recorded.parameters[i];
+            if (gradient != null && !delivered.contains(parameter)) {
+                parameter.updateGrad(gradient);
+                parameter.fireGradientHooks();
+            }
+        }
+        for (int i = 0; i < inputs.length; i++) {
+            inputGradients[i] = gradients.get("input" + inputs[i]);
+        }
+
+        return inputGradients;
+    }
+
+    public Tensor apply(final INDArray input) {
+        return contextFor(new INDArray[]{input}, false).graph.outputs[0];
     }
 
     /**
      * Calls this model with the input.
+     *
+     * Calls are thread safe: any number of threads can call the same
+     * module at once.
+     *
      * @param input Data to use as the input.
      * @return The result of the model operation.
      */
     public INDArray call(final INDArray input) {
-        output = apply(input);
-        return output.eval(placeHolders);
+        return contextFor(new INDArray[]{input}, false).execute()[0];
     }
 
 
     public Tensor apply(final INDArray firstInput, final INDArray secondInput) {
-        if (dynamic || getTape() == null || output == null) {
-            setTape(SameDiff.create());
-
-            placeHolders = new HashMap<String, INDArray>() {{
-                put("input0", firstInput);
-                put("input1", secondInput);
-            }};
-
-            applyToModules(this::setupParameters);
-
-            Tensor placeHolder1 = t(tape.placeHolder("input0", firstInput.dataType(), firstInput.shape()));
-            Tensor placeHolder2 = t(tape.placeHolder("input1", secondInput.dataType(), secondInput.shape()));
-            output = forward(placeHolder1, placeHolder2);
-        }
-
-        return output;
+        return contextFor(new INDArray[]{firstInput, secondInput}, false).graph.outputs[0];
     }
 
     /**
@@ -195,58 +332,423 @@ public abstract class Module {
      * @return The result of the model operation.
      */
     public INDArray call(final INDArray firstInput, final INDArray secondInput) {
-        output = apply(firstInput, secondInput);
-        return output.eval(placeHolders);
+        return contextFor(new INDArray[]{firstInput, secondInput}, false).execute()[0];
     }
 
     public Tensor[] apply(final INDArray[] inputs) {
-        if (dynamic || getTape() == null || outputs == null) {
-            setTape(SameDiff.create());
-
-            placeHolders = new HashMap<>();
-            int i = 0;
-            for (INDArray input : inputs) {
-                placeHolders.put("input" + i, input);
-                i++;
+        return contextFor(inputs, true).graph.outputs;
+    }
+
+    /**
+     * Calls this model with multiple inputs and returns multiple outputs.
+     * @param inputs Data to use as the inputs.
+     * @return The results of the model operation.
+     */
+    public INDArray[] call(final INDArray[] inputs) {
+        return contextFor(inputs, true).execute();
+    }
+
+    /**
+     * Calls the model with as many inputs as given, dispatching on their
+     * count like trace does.
+     */
+    private INDArray[] callWith(INDArray[] inputs) {
+        if (inputs.length == 1) {
+            return new INDArray[]{call(inputs[0])};
+        } else if (inputs.length == 2) {
+            return new INDArray[]{call(inputs[0], inputs[1])};
+        } else {
+            return call(inputs);
+        }
+    }
+
+    /**
+     * Calls the model on another thread, dispatching on the number of
+     * inputs like trace does: one or two inputs call forward(Tensor) or
+     * forward(Tensor, Tensor), more call forward(Tensor[]).
+     *
+     * The native ops run on the call executor, a bounded pool of platform
+     * threads by default, so asynchronous callers never block on them.
+     * Since the call is made on the executor, use call instead when
+     * backward() should follow it.
+     *
+     * @param inputs Data to use as the inputs.
+     * @return a future completed with the outputs of the call.
+     */
+    public CompletableFuture<INDArray[]> callAsync(INDArray... inputs) {
+        return CompletableFuture.supplyAsync(() -> callWith(inputs), getCallExecutor());
+    }
+
+    /**
+     * Sets the executor callAsync runs calls on.
+     *
+     * @param executor The executor to use, or null to use the shared default pool.
+     * @return this module instance.
+     */
+    public Module setCallExecutor(Executor executor) {
+        callExecutor = executor;
+
+        return this;
+    }
+
+    /**
+     * @return the executor callAsync runs calls on. Unless one was set it is
+     * a pool of one daemon thread per core shared by all modules.
+     */
+    public Executor getCallExecutor() {
+        if (callExecutor != null) {
+            return callExecutor;
+        }
+
+        synchronized (Module.class) {
+            if (defaultCallExecutor == null) {
+                AtomicInteger count = new AtomicInteger();
+                defaultCallExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread thread = new Thread(r, "module-call-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
             }
 
-            applyToModules(this::setupParameters);
+            return defaultCallExecutor;
+        }
+    }
+
+    /**
+     * Records and runs the forward pass once for every input shape, so the
+     * first real call does not pay for recording, JIT compilation and
+     * native buffer allocation.
+     *
+     * @param shapes The input shapes the module will be called with.
+     * @return the time in milliseconds each shape took to warm up.
+     */
+    public List<Pair<long[], Long>> warmup(List<long[]> shapes) {
+        List<long[][]> signatures = new ArrayList<>();
+        for (long[] shape : shapes) {
+            signatures.add(new long[][]{shape});
+        }
+
+        List<Pair<long[], Long>> times = new ArrayList<>();
+        for (Pair<long[][], Long> time : warmup(signatures, false)) {
+            times.add(Pair.of(time.getFirst()[0], time.getSecond()));
+        }
+
+        return times;
+    }
 
-            Tensor[] placeHolderVariables = new Tensor[inputs.length];
-            i = 0;
-            for (INDArray input : inputs) {
-                placeHolderVariables[i] = t(tape.placeHolder("input" + i, input.dataType(), input.shape()));
-                i++;
+    /**
+     * Records and runs the module once for every input signature, with the
+     * backward pass as well when warming up for training. Gradients the
+     * warmup computed are zeroed afterwards.
+     *
+     * @param signatures The shapes of all inputs of each call, e.g. features and labels for a loss module.
+     * @param backward Whether to run backward after every forward pass.
+     * @return the time in milliseconds each signature took to warm up.
+     */
+    public List<Pair<long[][], Long>> warmup(List<long[][]> signatures, boolean backward) {
+        List<Pair<long[][], Long>> times = new ArrayList<>();
+        for (long[][] shapes : signatures) {
+            INDArray[] inputs = new INDArray[shapes.length];
+            for (int i = 0; i < shapes.length; i++) {
+                inputs[i] = Nd4j.zeros(dataType, shapes[i]);
             }
 
-            outputs = forward(placeHolderVariables);
+            long started = System.nanoTime();
+            callWith(inputs);
+            if (backward) {
+                backward();
+            }
+            times.add(Pair.of(shapes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
         }
 
-        return outputs;
+        if (backward) {
+            zeroGrad();
+        }
+
+        return times;
     }
 
     /**
-     * Calls this model with multiple inputs and returns multiple outputs.
-     * @param inputs Data to use as the inputs.
-     * @return The results of the model operation.
+     * Creates the context of a call: its placeholders and the tape to run.
+     * The context is remembered as the current thread's last call.
      */
-    public INDArray[] call(final INDArray[] inputs) {
-        placeHolders = new HashMap<>();
+    private CallContext contextFor(INDArray[] inputs, boolean multiOutput) {
+        Map<Integer, Sequential> producers = Collections.emptyMap();
+        Map<INDArray, Sequential> outputs = checkpointedOutputs.get();
+        if (training && !outputs.isEmpty()) {
+            for (int i = 0; i < inputs.length; i++) {
+                Sequential producer = outputs.get(inputs[i]);
+                if (producer != null && producer != this) {
+                    if (producers.isEmpty()) {
+                        producers = new HashMap<>();
+                    }
+                    producers.put(i, producer);
+                }
+            }
+        }
 
-        outputs = apply(inputs);
+        if (mixedPrecision) {
+            inputs = inputs.clone();
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i].dataType().isFPType() && inputs[i].dataType() != dataType) {
+                    inputs[i] = inputs[i].castTo(dataType);
+                }
+            }
+        }
 
+        Map<String, INDArray> placeHolders = new HashMap<>();
+        for (int i = 0; i < inputs.length; i++) {
+            placeHolders.put("input" + i, inputs[i]);
+        }
 
-        Map<String, INDArray> outputMap = getTape().outputAll(placeHolders);
-        INDArray[] results = new INDArray[outputs.length];
-        int i = 0;
-        for (SDVariable output : outputs) {
-            results[i] = outputMap.get(output.name());
-            i++;
+        RecordedGraph graph = graphFor(inputs, placeHolders, multiOutput);
+        if (graph.tape.hasVariable(LOSS_SCALE)) {
+            placeHolders.put(LOSS_SCALE, Nd4j.scalar(DataType.FLOAT, lossScale));
         }
 
-        return results;
+        CallContext context = new CallContext(graph, placeHolders, producers);
+        lastCall.set(context);
+
+        return context;
     }
 
+    /**
+     * Finds the tape to run for the inputs, recording a new one when no
+     * tape with a matching signature is cached.
+     *
+     * A frozen module keeps running the tape it traced for as long as its
+     * guards hold, without taking any lock.
+     */
+    private RecordedGraph graphFor(INDArray[] inputs, Map<String, INDArray> placeHolders, boolean multiOutput) {
+        RecordedGraph frozen = graph;
+        if (!dynamic && frozen != null && frozen.guardsHold(inputs, training, multiOutput)) {
+            return frozen;
+        }
+
+        synchronized (this) {
+            if (!dynamic && graph != null) {
+                if (graph.guardsHold(inputs, training, multiOutput)) {
+                    return graph;
+                }
+                retraces++;
+            }
+
+            GraphSignature signature = GraphSignature.of(inputs, dynamicAxes, training, multiOutput);
+            RecordedGraph recorded = graphCache.get(signature);
+            if (recorded != null && !recorded.attach()) {
+                recorded = null;
+            }
+
+            if (recorded == null) {
+                recorded = record(signature, inputs, placeHolders);
+                graphCache.put(signature, recorded);
+            }
+
+            graph = recorded;
+            return recorded;
+        }
+    }
+
+    /**
+     * Records the forward pass on a new tape.
+     *
+     * Recording points the parameters and submodules at the new tape, and
+     * submodules may be shared between modules, so every module of the tree
+     * is locked while recording. The locks are taken in the order the
+     * modules were created, so trees sharing modules can not deadlock, and
+     * unrelated modules record at once. The tape outlives the call, so
+     * nothing it holds is allocated in the caller's workspace.
+     *
+     * The default array holder of SameDiff stores a copy of every array set
+     * on a variable, so the tape holds its arrays in a SingleThreadArrayHolder
+     * instead, which keeps the parameter arrays themselves. Arrays are only
+     * set while recording and attaching, under the module's lock; calls only
+     * read them.
+     */
+    private RecordedGraph record(GraphSignature signature, INDArray[] inputs, Map<String, INDArray> placeHolders) {
+        List<Module> tree = new ArrayList<>(collectModules(this, Collections.newSetFromMap(new IdentityHashMap<>())));
+        tree.sort(Comparator.comparingLong(m -> m.id));
+        for (Module m : tree) {
+            m.recordLock.lock();
+        }
+        try {
+            recordingPlaceHolders.set(placeHolders);
+            try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                SameDiff sd = SameDiff.create();
+                sd.setArrayHolders(new SingleThreadArrayHolder(), new SingleThreadArrayHolder(), false);
+                setTape(sd);
+                applyToModules(this::setupParameters);
+
+                Tensor[] placeHolderVariables = new Tensor[inputs.length];
+                for (int i = 0; i < inputs.length; i++) {
+                    placeHolderVariables[i] = t(tape.placeHolder("input" + i, signature.dataType(i), signature.shape(i)));
+                }
+
+                Tensor[] results;
+                if (signature.isMultiOutput()) {
+                    results = forward(placeHolderVariables);
+                } else if (inputs.length == 1) {
+                    results = new Tensor[]{forward(placeHolderVariables[0])};
+                } else {
+                    results = new Tensor[]{forward(placeHolderVariables[0], placeHolderVariables[1])};
+                }
+
+                if (mixedPrecision && signature.isTraining() && !tape.getLossVariables().isEmpty()) {
+                    // Scaling the losses scales every gradient, keeping small ones representable.
+                    // The backward ops of ND4J's loss functions ignore the gradient they are
+                    // given, so their weights are scaled instead and their outputs unscaled.
+                    // The scale and the scaled losses are FLOAT, they would overflow in FLOAT16.
+                    SDVariable scale = tape.placeHolder(LOSS_SCALE, DataType.FLOAT);
+                    List<String> scaled = new ArrayList<>();
+                    for (String name : tape.getLossVariables()) {
+                        SDVariable loss = tape.getVariable(name);
+                        DifferentialFunction op = tape.getVariableOutputOp(name);
+                        if (op instanceof BaseLoss) {
+                            SDVariable[] args = op.args();
+                            for (int i = 0; i < args.length; i++) {
+                                SDVariable arg = args[i].castTo(DataType.FLOAT);
+                                tape.replaceArgFor(i, i == 1 ? arg.mul(scale) : arg, op);
+                            }
+                            loss.setDataType(DataType.FLOAT);
+                            scaled.add(name);
+                            for (int i = 0; i < results.length; i++) {
+                                if (results[i].name().equals(name)) {
+                                    results[i] = t(loss.div(scale).castTo(dataType));
+                                }
+                            }
+                        } else {
+                            scaled.add(loss.castTo(DataType.FLOAT).mul(scale).name());
+                        }
+                    }
+                    tape.setLossVariables(scaled.toArray(new String[0]));
+                }
+
+                RecordedGraph recorded = new RecordedGraph(signature, tape, results, parameters());
+                if (graphPasses != null) {
+                    recorded.optimize(graphPasses);
+                }
+
+                return recorded;
+            } finally {
+                recordingPlaceHolders.remove();
+            }
+        } finally {
+            for (Module m : tree) {
+                m.recordLock.unlock();
+            }
+        }
+    }
+
+    private static Set<Module> collectModules(Module module, Set<Module> modules) {
+        if (modules.add(module)) {
+            for (Pair<String, Module> child : module.children()) {
+                collectModules(child.getValue(), modules);
+            }
+        }
+
+        return modules;
+    }
+
+    /**
+     * Exports the last traced tape, with the current parameter values, to a
+     * single FlatBuffers file.
+     *
+     * The file can be loaded with Module.load without the classes of the
+     * model. Trace the module in the mode it will be served in (usually
+     * eval()) before exporting it. A copy of the tape is exported, so the
+     * tape keeps running unchanged while and after it is exported.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void export(File file) throws IOException {
+        RecordedGraph graph = this.graph;
+        if (graph == null) {
+            throw new InvalidModuleException("Module has to be traced or called before it can be exported.");
+        }
+
+        SameDiff sd = NativeExecution.run(graph.tape::dup);
+        for (int i = 0; i < graph.outputs.length; i++) {
+            if (!sd.hasVariable("output" + i)) {
+                sd.identity("output" + i, graph.outputs[i]);
+            }
+        }
+        sd.asFlatFile(file);
+    }
+
+    /**
+     * Loads a module exported with Module.export.
+     *
+     * The loaded module runs the exported inference graph directly: no
+     * layers are constructed, no parameters initialized and nothing is
+     * recorded. It can be called like the module it was exported from but
+     * can not be trained.
+     *
+     * @param file The exported file.
+     * @return the loaded module.
+     * @throws IOException if the file could not be read.
+     */
+    public static Module load(File file) throws IOException {
+        return new LoadedModule(SameDiff.fromFlatFile(file));
+    }
+
+    /**
+     * Creates a replica of this module that shares its parameter arrays.
+     *
+     * The replica does not run the constructor or resetParameters, so no
+     * parameter memory is allocated. It has its own tapes, placeholders and
+     * gradients, and its submodules are replicas as well, so replicas can
+     * record and run calls independently of each other. Updates made in
+     * place to the parameter arrays are seen by every replica.
+     *
+     * @return the replica.
+     */
+    public Module replica() {
+        Module replica;
+        try {
+            replica = (Module) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InvalidModuleException("Module " + getClass().getSimpleName() + " could not be replicated.", e);
+        }
+
+        replica.lastCall = new ThreadLocal<>();
+        replica.graphCache = new GraphCache(graphCache.getCapacity());
+        replica.graph = null;
+        replica.tape = null;
+        replica.retraces = 0;
+        replica.dynamicAxes = dynamicAxes.clone();
+        replica.flatParameters = null;
+        replica.id = moduleIds.getAndIncrement();
+        replica.recordLock = new ReentrantLock();
+
+        for (Field f : parameters.values()) {
+            try {
+                f.setAccessible(true);
+                Parameter p = (Parameter) f.get(this);
+                if (p != null) {
+                    f.set(replica, p.replica());
+                }
+            } catch (IllegalAccessException e) {
+                String msg = "Field " + f.getName() + " is annotated as @Param but is not a Parameter.";
+                throw new InvalidModuleException(msg, e);
+            }
+        }
+
+        for (Field f : modules.values()) {
+            try {
+                f.setAccessible(true);
+                Module m = (Module) f.get(this);
+                if (m != null) {
+                    f.set(replica, m.replica());
+                }
+            } catch (IllegalAccessException e) {
+                String fieldName = f.getName();
+                throw new InvalidModuleException("Field: " + fieldName + " is not a Module but annotated as one.", e);
+            }
+        }
+
+        return replica;
+    }
 
     /**
      * Return a list of all modules that are a part of this module.
@@ -328,22 +830,22 @@ public abstract class Module {
     }
 
     /**
-     * Sets the gradients of all model parameters to zero.
+     * Sets the gradients of all model parameters to zero, in place.
+     * Backward adds to the gradients, so call this before every step.
      */
     public void zeroGrad() {
-        for (Field f : parameters.values()) {
-            Parameter p = null;
-            try {
-                p = (Parameter) f.get(this);
-            } catch (IllegalAccessException e) {
-                String fieldName = f.getName();
-                String msg = "Field " + fieldName + " is annotated as @Param but is not a Parameter.";
-                throw new InvalidModuleException(msg, e);
-            }
-            if (p.hasGradient()) {
-                p.gradient().setArray(Nd4j.zeros(p.gradient().getShape()));
-            }
-        }
+        zeroGrad(false);
+    }
+
+    /**
+     * Clears the gradients of all model parameters without allocating.
+     *
+     * @param setToNone If true the gradients are dropped instead of zeroed,
+     *                  so the next backward writes them without adding.
+     * @see Parameter#zeroGrad(Collection, boolean)
+     */
+    public void zeroGrad(boolean setToNone) {
+        Parameter.zeroGrad(flatParameters != null ? flatParameters : parameters(), setToNone);
     }
 
     /**
@@ -370,9 +872,89 @@ public abstract class Module {
         return ret;
     }
 
+    /**
+     * Packs the arrays and gradients of all parameters into two contiguous
+     * buffers, turning every parameter into a view of them. Optimizers
+     * created with the returned collection update the whole buffer at once.
+     *
+     * Flatten before creating replicas, replicas share the arrays the
+     * parameters had when they were created.
+     *
+     * @return the flat parameters, the same instance on every call.
+     */
+    public FlatParameters flattenParameters() {
+        if (flatParameters == null) {
+            flatParameters = new FlatParameters(parameters());
+            invalidateGraphs();
+        }
+
+        return flatParameters;
+    }
+
+    /**
+     * Runs the forward and backward passes in half precision.
+     *
+     * The parameters of this module and its submodules are cast to the
+     * compute type and floating point inputs are cast when the module is
+     * called. In training the losses are multiplied with the loss scale, so
+     * the gradients are scaled as well. Train with a GradScaler, which keeps
+     * full precision master weights, unscales the gradients and adjusts the
+     * loss scale.
+     *
+     * In BFLOAT16, relu of the nn ops is recorded with element-wise ops,
+     * since ND4J's activation backward ops do not accept BFLOAT16; other
+     * activations need the same treatment or FLOAT16.
+     *
+     * @param computeType FLOAT16 or BFLOAT16, or FLOAT to run in full precision again.
+     * @return this module instance.
+     */
+    public Module setMixedPrecision(DataType computeType) {
+        if (computeType != DataType.FLOAT16 && computeType != DataType.BFLOAT16 && computeType != DataType.FLOAT) {
+            throw new InvalidModuleException("Mixed precision needs FLOAT16 or BFLOAT16, not " + computeType + ".");
+        }
+
+        applyToModules(module -> {
+            if (module.flatParameters != null) {
+                throw new InvalidModuleException("Set mixed precision before flattening the parameters.");
+            }
+            module.dataType = computeType;
+            module.mixedPrecision = computeType != DataType.FLOAT;
+            module.invalidateGraphs();
+        });
+
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            for (Parameter p : parameters()) {
+                INDArray array = p.getArr();
+                if (array != null && array.dataType() != computeType) {
+                    p.setArray(array.castTo(computeType));
+                    p.setGrad(null);
+                }
+            }
+        }
+
+        return this;
+    }
+
+    public boolean isMixedPrecision() {
+        return mixedPrecision;
+    }
+
+    /**
+     * Sets the factor the losses are multiplied with before backward in
+     * mixed-precision training. Usually managed by a GradScaler.
+     *
+     * @param scale the loss scale.
+     */
+    public void setLossScale(double scale) {
+        lossScale = scale;
+    }
+
+    public double getLossScale() {
+        return lossScale;
+    }
+
     private void setupParameters(Module module) {
         module.setTape(tape);
-        module.getPlaceHolders().putAll(this.getPlaceHolders());
         for (Map.Entry<String, Field> entry : module.parameters.entrySet()) {
             String name = entry.getKey();
             Field field = entry.getValue();
@@ -381,6 +963,7 @@ public abstract class Module {
                 field.setAccessible(true);
                 Parameter p = (Parameter) field.get(module);
                 if (p != null) {
+                    // The tape references the parameter's own array, nothing is copied.
                     Tensor variable = t(tape.var(module.getName() + "/" + name, dataType, p.getShape()));
                     variable.setArray(p.getArr());
                     p.setData(variable);
@@ -393,7 +976,7 @@ public abstract class Module {
     }
 
     protected void setTape(SameDiff sd) {
-        nn = sd.nn();
+        nn = dataType == DataType.BFLOAT16 ? new Bfloat16NN(sd) : sd.nn();
         cnn = sd.cnn();
         rnn = sd.rnn();
         loss = sd.loss();
@@ -404,25 +987,188 @@ public abstract class Module {
         tape = sd;
     }
 
+    /**
+     * @return the tape of the current thread's last call, or the last
+     * recorded one if this thread made no call yet.
+     */
     public SameDiff getTape() {
-        return tape;
+        CallContext context = lastCall.get();
+        return context != null ? context.graph.tape : tape;
     }
 
+    /**
+     * @return the output of the current thread's last call.
+     */
     public SDVariable getOutput() {
-        return output;
+        CallContext context = lastCall.get();
+        return context != null ? context.graph.outputs[0] : null;
     }
 
+    /**
+     * @return the placeholders of the tape being recorded on this thread, or
+     * of the current thread's last call.
+     */
     public Map<String, INDArray> getPlaceHolders() {
-        return placeHolders;
+        Map<String, INDArray> recording = recordingPlaceHolders.get();
+        if (recording != null) {
+            return recording;
+        }
+
+        CallContext context = lastCall.get();
+        return context != null ? context.placeHolders : null;
     }
 
     public boolean getDynamic() {
         return dynamic;
     }
 
+    /**
+     * Sets whether the module looks up (or records) a tape on every call.
+     *
+     * Setting it to false is the same as calling freeze().
+     *
+     * @param value false to keep running the last traced tape.
+     */
     public void setDynamic(boolean value) {
         dynamic = value;
     }
+
+    /**
+     * Freezes the module on the next tape it runs.
+     *
+     * While frozen, calls only check the traced tape's guards (input shapes
+     * and data types, training mode and parameter arrays) and then run it
+     * directly. When a guard fails the module traces again for the new
+     * inputs and counts a retrace.
+     *
+     * @return this module instance.
+     */
+    public Module freeze() {
+        setDynamic(false);
+
+        return this;
+    }
+
+    /**
+     * Traces the module with example inputs and freezes it on that tape.
+     *
+     * One input traces forward(Tensor), two trace forward(Tensor, Tensor),
+     * so a loss module can be traced with an example batch and its labels.
+     *
+     * @param exampleInputs inputs with the shapes and types of the real ones.
+     * @return this module instance.
+     */
+    public synchronized Module trace(INDArray... exampleInputs) {
+        graph = null;
+        freeze();
+        if (exampleInputs.length == 1) {
+            apply(exampleInputs[0]);
+        } else if (exampleInputs.length == 2) {
+            apply(exampleInputs[0], exampleInputs[1]);
+        } else {
+            apply(exampleInputs);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the module to looking up a tape on every call.
+     *
+     * @return this module instance.
+     */
+    public Module unfreeze() {
+        setDynamic(true);
+
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return !dynamic;
+    }
+
+    /**
+     * @return the number of times a frozen module had to trace again
+     * because one of its guards failed.
+     */
+    public long getRetraceCount() {
+        return retraces;
+    }
+
+    /**
+     * Sets the input axes that are recorded as -1 in the placeholders, so
+     * one recorded tape serves every size along them. Defaults to the batch
+     * axis; pass no axes to record the exact input shapes.
+     *
+     * @param axes the axes of every input whose size may change between calls.
+     * @return this module instance.
+     */
+    public Module setDynamicAxes(int... axes) {
+        dynamicAxes = axes.clone();
+        invalidateGraphs();
+
+        return this;
+    }
+
+    public int[] getDynamicAxes() {
+        return dynamicAxes.clone();
+    }
+
+    /**
+     * The cache of tapes recorded by apply, keyed by input signature.
+     *
+     * @return the graph cache of this module.
+     */
+    public GraphCache getGraphCache() {
+        return graphCache;
+    }
+
+    /**
+     * Sets the passes run on every tape this module records, before it is
+     * executed for the first time. Tapes recorded earlier are dropped.
+     *
+     * @param passes The passes to run, or null to run none.
+     * @return this module instance.
+     */
+    public Module setGraphPasses(PassPipeline passes) {
+        graphPasses = passes;
+        invalidateGraphs();
+
+        return this;
+    }
+
+    /**
+     * @return the number of ops each pass removed from the current tape, by
+     * pass name. Empty if no passes ran on it.
+     */
+    public Map<String, Integer> getPassReport() {
+        if (graph == null) {
+            return Collections.emptyMap();
+        }
+        return graph.passReport;
+    }
+
+    /**
+     * Drops every recorded tape, including the one a frozen module runs.
+     * Called by modules whose forward pass changed structurally.
+     */
+    protected void invalidateGraphs() {
+        graphCache.clear();
+        graph = null;
+    }
+
+    /**
+     * Sets how many recorded tapes are kept. A size of 0 records the
+     * forward pass again on every call.
+     *
+     * @param size the maximum number of tapes to keep.
+     * @return this module instance.
+     */
+    public Module setGraphCacheSize(int size) {
+        graphCache.setCapacity(size);
+
+        return this;
+    }
     protected Tensor t(SDVariable var) {
         return new Tensor(this, var);
     }
@@ -0,0 +1,79 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.common.function.Supplier;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of threads running native ops at once to the number
+ * of threads of ND4J's native thread pool.
+ *
+ * The pool has one ticket per thread and hands one out for every op it
+ * runs in parallel, but gets the threads of an op back before its ticket.
+ * When more threads run ops than the pool has tickets, an op can find
+ * threads free and no ticket left, which crashes the JVM. Modules are
+ * called from any number of threads, e.g. by replicas training in
+ * parallel, so every forward and backward pass holds a permit, and so do
+ * optimizer steps, gradient reductions and the other work trainers run on
+ * their own threads.
+ *
+ * Permits are reentrant. A thread holding one must not wait for work of
+ * other threads that needs a permit as well, since with a single native
+ * thread that work can never start; see isHeld().
+ */
+public final class NativeExecution {
+    private static final Semaphore PERMITS = new Semaphore(getParallelism());
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private NativeExecution() {
+    }
+
+    /**
+     * Runs the execution while holding a permit.
+     *
+     * @param execution The native work to run.
+     * @return the result of the execution.
+     */
+    public static <T> T run(Supplier<T> execution) {
+        int[] depth = DEPTH.get();
+        if (depth[0] == 0) {
+            PERMITS.acquireUninterruptibly();
+        }
+        depth[0]++;
+        try {
+            return execution.get();
+        } finally {
+            if (--depth[0] == 0) {
+                PERMITS.release();
+            }
+        }
+    }
+
+    /**
+     * Runs the execution while holding a permit.
+     *
+     * @param execution The native work to run.
+     */
+    public static void execute(Runnable execution) {
+        run(() -> {
+            execution.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return whether the current thread holds a permit, in which case it
+     * has to run native work itself instead of handing it to other threads.
+     */
+    public static boolean isHeld() {
+        return DEPTH.get()[0] > 0;
+    }
+
+    /**
+     * @return the number of threads that can run native ops at once.
+     */
+    public static int getParallelism() {
+        return Math.max(1, Nd4j.getEnvironment().maxThreads());
+    }
+}
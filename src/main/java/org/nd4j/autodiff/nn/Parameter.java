@@ -5,18 +5,36 @@ import org.nd4j.autodiff.samediff.SDIndex;
 import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.autodiff.samediff.SameDiff;
 import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.common.function.Consumer;
 import org.nd4j.linalg.api.blas.params.MMulTranspose;
 import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.shape.LongShapeDescriptor;
+import org.nd4j.linalg.factory.Nd4j;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A trainable array of a Module.
+ *
+ * The parameter owns its array and its gradient array. Every tape the
+ * parameter is recorded in references the same array, so optimizer updates
+ * are visible to all of them, and backward() copies gradients into the same
+ * gradient array no matter which tape produced them.
+ */
 public abstract class Parameter extends SDVariable {
 
     private SDVariable data;
-    private INDArray initialArray;
+    private INDArray array;
+    private INDArray grad;
+    private boolean gradCleared;
     private boolean requiresGrad = true;
+    private final List<Consumer<Parameter>> gradientHooks = new CopyOnWriteArrayList<>();
 
     Parameter(SDVariable data) {
         this.data = data;
@@ -34,6 +52,141 @@ public abstract class Parameter extends SDVariable {
         this.data = data;
     }
 
+    /**
+     * @return the gradient accumulated by the backward passes since the last
+     * zeroGrad, or null if there was none yet.
+     */
+    public INDArray getGrad() {
+        return gradCleared ? null : grad;
+    }
+
+    /**
+     * Replaces the gradient array. Later backward passes write into it.
+     *
+     * @param grad the new gradient array, with the shape of the parameter.
+     */
+    public synchronized void setGrad(INDArray grad) {
+        this.grad = grad;
+        this.gradCleared = false;
+    }
+
+    /**
+     * Clears the gradient in place, keeping the gradient array for the next
+     * backward pass.
+     *
+     * @param setToNone If true the gradient is not zeroed but dropped:
+     *                  getGrad() returns null and the next backward pass
+     *                  writes the gradient instead of adding to it.
+     */
+    public synchronized void zeroGrad(boolean setToNone) {
+        if (grad == null) {
+            return;
+        }
+
+        if (setToNone) {
+            gradCleared = true;
+        } else {
+            grad.assign(0.0);
+            gradCleared = false;
+        }
+    }
+
+    /**
+     * Clears the gradients of the parameters. This is the one path used by
+     * Module.zeroGrad and Optimizer.zeroGrad. Flattened parameters are
+     * cleared with a single fill of their gradient buffer.
+     *
+     * setToNone is ignored for FlatParameters: their gradients are always
+     * zeroed, never dropped, because the optimizer steps the whole gradient
+     * buffer and a dropped gradient would leave stale values in it.
+     * getGrad() of a flattened parameter returns the zeroed view, not null.
+     *
+     * @param parameters The parameters to clear.
+     * @param setToNone Whether to drop the gradients instead of zeroing
+     *                  them, ignored for FlatParameters.
+     */
+    public static void zeroGrad(Collection<Parameter> parameters, boolean setToNone) {
+        if (parameters instanceof FlatParameters) {
+            ((FlatParameters) parameters).getGradients().assign(0.0);
+            for (Parameter p : parameters) {
+                p.gradCleared = false;
+            }
+            return;
+        }
+
+        for (Parameter p : parameters) {
+            p.zeroGrad(setToNone);
+        }
+    }
+
+    /**
+     * Adds a hook that is called with this parameter every time backward
+     * finalized its gradient, possibly before the backward pass finished.
+     * Hooks run on the thread running backward.
+     *
+     * @param hook The hook to call.
+     */
+    public void addGradientHook(Consumer<Parameter> hook) {
+        gradientHooks.add(hook);
+    }
+
+    public void removeGradientHook(Consumer<Parameter> hook) {
+        gradientHooks.remove(hook);
+    }
+
+    void fireGradientHooks() {
+        for (Consumer<Parameter> hook : gradientHooks) {
+            hook.accept(this);
+        }
+    }
+
+    /**
+     * Adds a freshly computed gradient to the gradient, reusing the gradient
+     * array once it exists. A gradient that was set to none is overwritten.
+     * Locked per parameter, since threads running backward on the same
+     * module accumulate into the same gradient.
+     *
+     * The gradient array is always written in place, it may be a view of
+     * the buffer of FlatParameters; a value of another shape but the same
+     * length is reshaped into it.
+     */
+    synchronized void updateGrad(INDArray value) {
+        if (grad == null) {
+            try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                grad = value.dup();
+            }
+            gradCleared = false;
+            return;
+        }
+
+        if (!grad.equalShapes(value)) {
+            if (grad.length() != value.length()) {
+                throw new InvalidModuleException("A gradient of shape " + Arrays.toString(value.shape())
+                        + " does not fit the gradient of shape " + Arrays.toString(grad.shape()) + ".");
+            }
+            value = value.reshape(grad.shape());
+        }
+        if (gradCleared) {
+            grad.assign(value);
+        } else {
+            grad.addi(value);
+        }
+        gradCleared = false;
+    }
+
+    /**
+     * Creates a parameter that shares this parameter's array but has its
+     * own gradient and is recorded on its own tapes.
+     */
+    Parameter replica() {
+        INDArray arr = getArr();
+        Parameter replica = new TensorParameter(arr != null ? arr.shape() : getShape());
+        replica.array = arr;
+        replica.requiresGrad = requiresGrad;
+
+        return replica;
+    }
+
     // Region: SDVariable Methods
 
     @Override
@@ -99,11 +252,10 @@ public abstract class Parameter extends SDVariable {
 
     @Override
     public INDArray getArr() {
-        if (data != null) {
+        if (array == null && data != null) {
             return data.getArr();
-        } else {
-            return initialArray;
         }
+        return array;
     }
 
     @Override
@@ -743,10 +895,9 @@ public abstract class Parameter extends SDVariable {
 
     @Override
     public SDVariable setArray(INDArray array) {
+        this.array = array;
         if (data != null) {
             data.setArray(array);
-        } else {
-            initialArray = array;
         }
 
         return this;
@@ -799,11 +950,7 @@ public abstract class Parameter extends SDVariable {
 
     @Override
     public boolean hasGradient() {
-        if (data != null) {
-            return data.hasGradient();
-        } else {
-            return false;
-        }
+        return grad != null && !gradCleared;
     }
 
     @Override
@@ -0,0 +1,240 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.autodiff.optim.Optimizer;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Runs a Sequential model as a pipeline of stages, each on its own thread.
+ *
+ * The layers are partitioned into stages of about equal measured cost and
+ * every batch is split into micro-batches that flow through the stages
+ * GPipe-style: while a stage works on one micro-batch, the stage before it
+ * already works on the next one. In training the backward pass of every
+ * micro-batch flows back through the stages the same way, recomputing each
+ * stage's forward pass instead of keeping its intermediate activations.
+ * The gradients of all micro-batches are accumulated before the optimizer
+ * takes one step.
+ */
+public class Pipeline implements AutoCloseable {
+    private final List<Sequential> stages;
+    private final Module[] backwardStages;
+    private final Parameter[][] stageParameters;
+    private final ExecutorService[] executors;
+    private final Optimizer optimizer;
+    private final int microBatches;
+
+    /**
+     * @param model The model to run.
+     * @param criterion Creates the loss module around the last stage, e.g. CrossEntropyLoss::new.
+     * @param optimizer The optimizer of the model's parameters.
+     * @param stages The number of stages and threads.
+     * @param microBatches The number of micro-batches every batch is split into.
+     * @param exampleInput A micro-batch sized input used to measure the cost of each layer.
+     */
+    public Pipeline(Sequential model, Function<Module, Module> criterion, Optimizer optimizer,
+                    int stages, int microBatches, INDArray exampleInput) {
+        this.optimizer = optimizer;
+        this.microBatches = microBatches;
+        this.stages = model.partition(stages, exampleInput);
+
+        int count = this.stages.size();
+        backwardStages = new Module[count];
+        stageParameters = new Parameter[count][];
+        executors = new ExecutorService[count];
+        for (int s = 0; s < count; s++) {
+            backwardStages[s] = s == count - 1 ? criterion.apply(this.stages.get(s)) : new PipelineStage(this.stages.get(s));
+            backwardStages[s].train(model.getTrain());
+            stageParameters[s] = backwardStages[s].parameters().toArray(new Parameter[0]);
+
+            final int stage = s;
+            executors[s] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "pipeline-stage-" + stage);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Runs the forward pass of the model through the pipeline.
+     *
+     * @param input The input batch.
+     * @return the output of the model for the batch.
+     */
+    public INDArray call(INDArray input) {
+        long batchSize = input.size(0);
+        int count = (int) Math.min(microBatches, batchSize);
+
+        List<CompletableFuture<INDArray>> outputs = new ArrayList<>();
+        long start = 0;
+        for (int m = 0; m < count; m++) {
+            long end = start + (batchSize - start) / (count - m);
+            CompletableFuture<INDArray> activation = CompletableFuture.completedFuture(rows(input, start, end));
+            for (int s = 0; s < stages.size(); s++) {
+                final Sequential stage = stages.get(s);
+                activation = activation.thenApplyAsync(stage::call, executors[s]);
+            }
+            outputs.add(activation);
+            start = end;
+        }
+
+        INDArray[] results = new INDArray[count];
+        for (int m = 0; m < count; m++) {
+            results[m] = join(outputs.get(m));
+        }
+
+        return count == 1 ? results[0] : Nd4j.concat(0, results);
+    }
+
+    /**
+     * Runs one training step on a batch: the forward and backward pass of
+     * every micro-batch, then one optimizer step with the accumulated
+     * gradients.
+     *
+     * @param features The inputs of the batch.
+     * @param labels The labels of the batch.
+     * @return the loss of the batch.
+     */
+    public double step(INDArray features, INDArray labels) {
+        long batchSize = features.size(0);
+        int count = (int) Math.min(microBatches, batchSize);
+        int last = stages.size() - 1;
+
+        INDArray[][] sums = new INDArray[stages.size()][];
+        for (int s = 0; s < sums.length; s++) {
+            sums[s] = new INDArray[stageParameters[s].length];
+        }
+        double[] losses = new double[count];
+
+        List<CompletableFuture<INDArray>> passes = new ArrayList<>();
+        long start = 0;
+        for (int m = 0; m < count; m++) {
+            final int microBatch = m;
+            long end = start + (batchSize - start) / (count - m);
+            final INDArray y = rows(labels, start, end);
+            final double scale = (end - start) / (double) batchSize;
+            final INDArray[] inputs = new INDArray[stages.size()];
+
+            CompletableFuture<INDArray> activation = CompletableFuture.completedFuture(rows(features, start, end));
+            for (int s = 0; s < last; s++) {
+                final int stage = s;
+                activation = activation.thenApplyAsync(x -> {
+                    inputs[stage] = x;
+                    return stages.get(stage).call(x);
+                }, executors[s]);
+            }
+
+            CompletableFuture<INDArray> gradient = activation.thenApplyAsync(x -> NativeExecution.run(() -> {
+                losses[microBatch] = backwardStages[last].call(x, y).sumNumber().doubleValue() * scale;
+                backwardStages[last].zeroGrad(true);
+                INDArray[] inputGradients = backwardStages[last].backward(0);
+                accumulate(last, sums[last], scale);
+                return inputGradients[0];
+            }), executors[last]);
+
+            for (int s = last - 1; s >= 0; s--) {
+                final int stage = s;
+                gradient = gradient.thenApplyAsync(outputGradient -> NativeExecution.run(() -> {
+                    backwardStages[stage].call(inputs[stage], outputGradient);
+                    backwardStages[stage].zeroGrad(true);
+                    INDArray inputGradient = null;
+                    if (stage > 0) {
+                        inputGradient = backwardStages[stage].backward(0)[0];
+                    } else {
+                        backwardStages[stage].backward();
+                    }
+                    accumulate(stage, sums[stage], scale);
+                    return inputGradient;
+                }), executors[s]);
+            }
+
+            passes.add(gradient);
+            start = end;
+        }
+
+        for (CompletableFuture<INDArray> pass : passes) {
+            join(pass);
+        }
+
+        for (int s = 0; s < sums.length; s++) {
+            for (int i = 0; i < sums[s].length; i++) {
+                if (sums[s][i] != null) {
+                    stageParameters[s][i].zeroGrad(true);
+                    stageParameters[s][i].updateGrad(sums[s][i]);
+                }
+            }
+        }
+        optimizer.step();
+
+        double loss = 0.0;
+        for (double microBatchLoss : losses) {
+            loss += microBatchLoss;
+        }
+
+        return loss;
+    }
+
+    /**
+     * Adds the gradients of the stage's last backward pass, weighted by the
+     * size of its micro-batch. Only the stage's own thread calls this.
+     */
+    private void accumulate(int stage, INDArray[] sums, double scale) {
+        Parameter[] params = stageParameters[stage];
+        for (int i = 0; i < params.length; i++) {
+            if (!params[i].hasGradient()) {
+                continue;
+            }
+            if (sums[i] == null) {
+                try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                    sums[i] = params[i].getGrad().mul(scale);
+                }
+            } else {
+                sums[i].addi(params[i].getGrad().mul(scale));
+            }
+        }
+    }
+
+    private static INDArray join(CompletableFuture<INDArray> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new InvalidModuleException("A pipeline stage failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static INDArray rows(INDArray array, long from, long to) {
+        INDArrayIndex[] indices = new INDArrayIndex[array.rank()];
+        indices[0] = NDArrayIndex.interval(from, to);
+        for (int axis = 1; axis < indices.length; axis++) {
+            indices[axis] = NDArrayIndex.all();
+        }
+
+        return array.get(indices);
+    }
+
+    /**
+     * @return the stages the layers were partitioned into.
+     */
+    public List<Sequential> getStages() {
+        return stages;
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+    }
+}
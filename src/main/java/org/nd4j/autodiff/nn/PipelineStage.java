@@ -0,0 +1,29 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.autodiff.eager.Tensor;
+import org.nd4j.autodiff.samediff.SDVariable;
+
+/**
+ * The backward pass of one stage of a Pipeline.
+ *
+ * Called with the input of the stage and the gradient of its output, its
+ * loss is sum(output * gradient), so backward(0) computes the gradients of
+ * the stage's parameters and of its input. The forward pass of the stage
+ * is recomputed on the way.
+ */
+class PipelineStage extends Module {
+    @Mod final Module body;
+
+    PipelineStage(Module body) {
+        super();
+        this.body = body;
+    }
+
+    @Override
+    protected Tensor forward(Tensor input, Tensor outputGradient) {
+        SDVariable product = body.forward(input).mul(outputGradient).sum();
+        product.markAsLoss();
+
+        return t(product);
+    }
+}
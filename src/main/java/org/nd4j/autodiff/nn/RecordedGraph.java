@@ -0,0 +1,204 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.autodiff.eager.Tensor;
+import org.nd4j.autodiff.passes.PassContext;
+import org.nd4j.autodiff.passes.PassPipeline;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.array.SingleThreadArrayHolder;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A tape recorded by Module.apply together with everything needed to run it
+ * again without re-recording: its outputs and the variable each parameter
+ * was attached as.
+ */
+class RecordedGraph {
+    final GraphSignature signature;
+    final SameDiff tape;
+    final Tensor[] outputs;
+    final Parameter[] parameters;
+    final String[] variableNames;
+    final INDArray[] arrays;
+    final boolean[] folded;
+    Map<String, Integer> passReport = Collections.emptyMap();
+    GradientReadyListener gradientListener;
+    private SameDiff inputGradientTape;
+    private Set<String> inputGradientNames;
+
+    RecordedGraph(GraphSignature signature, SameDiff tape, Tensor[] outputs, Collection<Parameter> parameters) {
+        this.signature = signature;
+        this.tape = tape;
+        this.outputs = outputs;
+        this.parameters = parameters.toArray(new Parameter[0]);
+        this.variableNames = new String[this.parameters.length];
+        this.arrays = new INDArray[this.parameters.length];
+        this.folded = new boolean[this.parameters.length];
+        for (int i = 0; i < this.parameters.length; i++) {
+            variableNames[i] = this.parameters[i].name();
+            arrays[i] = this.parameters[i].getArr();
+        }
+    }
+
+    /**
+     * Runs the passes on the tape. Frozen parameters may be folded into
+     * constants, so they are remembered to invalidate the tape if they
+     * are unfrozen or replaced later.
+     */
+    void optimize(PassPipeline passes) {
+        Set<String> required = new HashSet<>(tape.getLossVariables());
+        for (Tensor output : outputs) {
+            required.add(output.name());
+        }
+
+        Set<String> frozen = new HashSet<>();
+        for (int i = 0; i < parameters.length; i++) {
+            if (!parameters[i].isRequiresGrad()) {
+                frozen.add(variableNames[i]);
+                folded[i] = true;
+            }
+        }
+
+        boolean training = signature.isTraining() || !tape.getLossVariables().isEmpty();
+        passReport = passes.run(tape, new PassContext(required, frozen, training));
+    }
+
+    /**
+     * Re-attaches parameter arrays that were replaced with setArray since
+     * the tape was recorded. The tape references the arrays themselves, so
+     * in-place updates never need this.
+     *
+     * @return false if the tape can not be used anymore because a parameter
+     * it folded into a constant was unfrozen or replaced.
+     */
+    boolean attach() {
+        if (!foldedUnchanged()) {
+            return false;
+        }
+
+        for (int i = 0; i < parameters.length; i++) {
+            INDArray current = parameters[i].getArr();
+            if (current != arrays[i]) {
+                tape.getVariable(variableNames[i]).setArray(current);
+                arrays[i] = current;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean foldedUnchanged() {
+        for (int i = 0; i < parameters.length; i++) {
+            if (folded[i] && (parameters[i].isRequiresGrad() || parameters[i].getArr() != arrays[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates the gradient function of the tape once, so that threads
+     * running backward on it at the same time do not both create it, and
+     * the listener that delivers gradients as they are computed.
+     */
+    synchronized void prepareGradients() {
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            if (tape.getFunction("grad") == null) {
+                tape.createGradFunction();
+            }
+            if (gradientListener == null) {
+                gradientListener = new GradientReadyListener(this);
+                tape.addListeners(gradientListener);
+            }
+        }
+    }
+
+    /**
+     * Computes the gradients of inputs of a tape without a trained
+     * parameter, e.g. of a loss around an Identity. SameDiff only
+     * differentiates with respect to variables, so the inputs become
+     * variables of a copy of the tape, made once for the inputs asked for.
+     * Backward passes on that copy run one at a time.
+     *
+     * @param placeHolders The placeholders of the call, including the inputs.
+     * @param inputNames The placeholder names of the inputs to differentiate.
+     * @return the gradients by input name.
+     */
+    synchronized Map<String, INDArray> inputGradients(Map<String, INDArray> placeHolders, List<String> inputNames) {
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            if (inputGradientTape == null || !inputGradientNames.equals(new HashSet<>(inputNames))) {
+                SameDiff copy = tape.dup();
+                copy.setArrayHolders(new SingleThreadArrayHolder(), new SingleThreadArrayHolder(), true);
+                for (String name : inputNames) {
+                    copy.getVariable(name).setArray(placeHolders.get(name));
+                    copy.getVariable(name).convertToVariable();
+                }
+                inputGradientTape = copy;
+                inputGradientNames = new HashSet<>(inputNames);
+            }
+
+            Map<String, INDArray> values = new HashMap<>(placeHolders);
+            for (String name : inputNames) {
+                inputGradientTape.getVariable(name).setArray(values.remove(name));
+            }
+            for (int i = 0; i < parameters.length; i++) {
+                SDVariable variable = inputGradientTape.getVariable(variableNames[i]);
+                if (variable != null && variable.getVariableType() == VariableType.VARIABLE) {
+                    variable.setArray(parameters[i].getArr());
+                }
+            }
+
+            return NativeExecution.run(() -> inputGradientTape.calculateGradients(values, inputNames));
+        }
+    }
+
+    /**
+     * Checks that this tape can run the inputs unchanged: they match the
+     * recorded placeholders, the training mode is the same and every
+     * parameter still has the array the tape was traced with.
+     */
+    boolean guardsHold(INDArray[] inputs, boolean training, boolean multiOutput) {
+        if (signature.isTraining() != training
+                || signature.isMultiOutput() != multiOutput
+                || signature.inputCount() != inputs.length) {
+            return false;
+        }
+
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i].dataType() != signature.dataType(i)) {
+                return false;
+            }
+
+            long[] expected = signature.shape(i);
+            long[] actual = inputs[i].shape();
+            if (expected.length != actual.length) {
+                return false;
+            }
+            for (int axis = 0; axis < actual.length; axis++) {
+                if (expected[axis] != -1 && expected[axis] != actual[axis]) {
+                    return false;
+                }
+            }
+        }
+
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].getArr() != arrays[i]) {
+                return false;
+            }
+        }
+
+        return foldedUnchanged();
+    }
+}
@@ -3,9 +3,15 @@ package org.nd4j.autodiff.nn;
 import org.nd4j.autodiff.eager.Tensor;
 import org.nd4j.autodiff.samediff.SDVariable;
 
+import org.nd4j.common.primitives.Pair;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A sequential model.
@@ -14,6 +20,8 @@ import java.util.LinkedHashMap;
  */
 public class Sequential extends Module implements Collection<Module> {
     private LinkedHashMap<String, Module> submodules;
+    private int checkpointSegments;
+    private List<Checkpoint> checkpoints;
 
     /**
      * Create a sequential model of the modules.
@@ -25,7 +33,7 @@ public class Sequential extends Module implements Collection<Module> {
         submodules = new LinkedHashMap<>();
         int layer = 0;
         for (Module m : modules) {
-            submodules.put("Layer" + layer, m);
+            submodules.put("Layer" + layer++, m);
         }
         setDynamic(false);
     }
@@ -49,6 +57,203 @@ public class Sequential extends Module implements Collection<Module> {
         return x;
     }
 
+    /**
+     * Runs the layers as checkpointed segments while training: each segment
+     * only keeps its input, and backward(outputGradient) recomputes its
+     * activations. About sqrt(size()) segments keep the fewest activations
+     * alive at once, at no more compute than call and backward take anyway,
+     * since backward reruns the forward pass of its tape.
+     *
+     * The backward of a module called with the output, e.g. a criterion in
+     * criterion.call(model.call(x), labels).backward(), continues into the
+     * segments by itself. Recorded inside another module's forward pass,
+     * e.g. as the model of a CrossEntropyLoss, the layers are not
+     * checkpointed.
+     *
+     * @param segments The number of segments of consecutive layers, 0 to turn checkpointing off.
+     * @return this module instance.
+     */
+    public Sequential setCheckpointSegments(int segments) {
+        checkpointSegments = Math.max(0, Math.min(segments, submodules.size()));
+        checkpoints = null;
+        return this;
+    }
+
+    public int getCheckpointSegments() {
+        return checkpointSegments;
+    }
+
+    /**
+     * Calls the model. With checkpoint segments and in training, the
+     * segments run one after another and only their inputs are kept.
+     */
+    @Override
+    public INDArray call(INDArray input) {
+        if (checkpointSegments == 0 || !getTrain()) {
+            return super.call(input);
+        }
+
+        INDArray x = input;
+        for (Checkpoint segment : segments()) {
+            x = segment.call(x);
+        }
+        checkpointedOutput(this, x);
+
+        return x;
+    }
+
+    /**
+     * Computes the gradients of the last checkpointed call made on the
+     * current thread, one segment at a time from the last to the first.
+     * Called by the backward of a module called with the output, or directly.
+     *
+     * @param outputGradient The gradient of the loss with respect to the output,
+     *                       e.g. backward(0)[0] of a loss around an Identity
+     *                       called with the output.
+     * @return the gradient of the loss with respect to the input.
+     */
+    public INDArray backward(INDArray outputGradient) {
+        if (checkpointSegments == 0) {
+            throw new InvalidModuleException("backward(outputGradient) needs checkpoint segments, see setCheckpointSegments.");
+        }
+
+        checkpointedOutput(this, null);
+        List<Checkpoint> segments = segments();
+        INDArray gradient = outputGradient;
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            gradient = segments.get(s).backward(gradient);
+        }
+
+        return gradient;
+    }
+
+    /**
+     * Groups the layers into the checkpoint segments, about the same number
+     * of layers each. The segments share the layers of this model.
+     */
+    private synchronized List<Checkpoint> segments() {
+        if (checkpoints == null) {
+            List<String> names = new ArrayList<>(submodules.keySet());
+            List<Checkpoint> ret = new ArrayList<>();
+            for (int s = 0; s < checkpointSegments; s++) {
+                LinkedHashMap<String, Module> layers = new LinkedHashMap<>();
+                int end = (s + 1) * names.size() / checkpointSegments;
+                for (int i = s * names.size() / checkpointSegments; i < end; i++) {
+                    layers.put(names.get(i), submodules.get(names.get(i)));
+                }
+                ret.add(new Checkpoint(new Sequential(layers)));
+            }
+            checkpoints = ret;
+        }
+
+        return checkpoints;
+    }
+
+    @Override
+    public Iterable<Pair<String, Module>> children() {
+        List<Pair<String, Module>> ret = new ArrayList<>();
+        for (Map.Entry<String, Module> entry : submodules.entrySet()) {
+            ret.add(Pair.of(entry.getKey(), entry.getValue()));
+        }
+
+        return ret;
+    }
+
+    /**
+     * Splits the layers into contiguous stages of about equal cost.
+     *
+     * The cost of every layer is measured by running it on the output of the
+     * layers before it, starting with the example input. The stages share
+     * the layers, and with them the parameters, of this model.
+     *
+     * @param stages The number of stages, at most the number of layers.
+     * @param exampleInput An input with the shape of the real ones, e.g. one micro-batch.
+     * @return the stages in order.
+     */
+    public List<Sequential> partition(int stages, INDArray exampleInput) {
+        List<String> names = new ArrayList<>(submodules.keySet());
+        double[] costs = new double[names.size()];
+        INDArray x = exampleInput;
+        for (int i = 0; i < costs.length; i++) {
+            Module m = submodules.get(names.get(i));
+            INDArray out = m.call(x);
+
+            long started = System.nanoTime();
+            for (int run = 0; run < 3; run++) {
+                out = m.call(x);
+            }
+            costs[i] = (System.nanoTime() - started) / 3.0;
+            x = out;
+        }
+
+        int[] starts = balance(costs, Math.max(1, Math.min(stages, costs.length)));
+        List<Sequential> ret = new ArrayList<>();
+        for (int stage = 0; stage < starts.length; stage++) {
+            int end = stage + 1 < starts.length ? starts[stage + 1] : names.size();
+            LinkedHashMap<String, Module> layers = new LinkedHashMap<>();
+            for (int i = starts[stage]; i < end; i++) {
+                layers.put(names.get(i), submodules.get(names.get(i)));
+            }
+            ret.add(new Sequential(layers));
+        }
+
+        return ret;
+    }
+
+    /**
+     * Finds the split of the costs into contiguous parts that minimizes the
+     * cost of the most expensive part.
+     *
+     * @return the index each part starts at.
+     */
+    static int[] balance(double[] costs, int parts) {
+        int n = costs.length;
+        double[] prefix = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            prefix[i + 1] = prefix[i] + costs[i];
+        }
+
+        // best[k][i]: the lowest maximum cost of splitting the first i layers into k parts.
+        double[][] best = new double[parts + 1][n + 1];
+        int[][] split = new int[parts + 1][n + 1];
+        for (int i = 1; i <= n; i++) {
+            best[1][i] = prefix[i];
+        }
+        for (int k = 2; k <= parts; k++) {
+            for (int i = k; i <= n; i++) {
+                best[k][i] = Double.MAX_VALUE;
+                for (int j = k - 1; j < i; j++) {
+                    double cost = Math.max(best[k - 1][j], prefix[i] - prefix[j]);
+                    if (cost < best[k][i]) {
+                        best[k][i] = cost;
+                        split[k][i] = j;
+                    }
+                }
+            }
+        }
+
+        int[] starts = new int[parts];
+        int end = n;
+        for (int k = parts; k > 1; k--) {
+            end = split[k][end];
+            starts[k - 1] = end;
+        }
+
+        return starts;
+    }
+
+    @Override
+    public Module replica() {
+        Sequential replica = (Sequential) super.replica();
+        replica.submodules = new LinkedHashMap<>();
+        for (String name : submodules.keySet()) {
+            replica.submodules.put(name, submodules.get(name).replica());
+        }
+        replica.checkpoints = null;
+
+        return replica;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("[\n");
@@ -97,6 +302,8 @@ public class Sequential extends Module implements Collection<Module> {
     @Override
     public boolean add(Module module) {
         submodules.put("layer" + submodules.size(), module);
+        checkpoints = null;
+        invalidateGraphs();
         return true;
     }
 
@@ -131,5 +338,8 @@ public class Sequential extends Module implements Collection<Module> {
     @Override
     public void clear() {
         submodules.clear();
+        checkpoints = null;
+        checkpointSegments = 0;
+        invalidateGraphs();
     }
 }
@@ -0,0 +1,104 @@
+package org.nd4j.autodiff.nn;
+
+import org.nd4j.common.function.Supplier;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.abstracts.Nd4jWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Runs training steps inside a reusable ND4J workspace.
+ *
+ * Arrays created on the training thread during a step, like activations,
+ * gradients and temporaries, are placed in the workspace instead of being
+ * allocated and freed one by one. The workspace learns its size during
+ * the first step and every later step reuses the same memory from the
+ * start.
+ *
+ * Nothing allocated inside a step may be used after it: parameters,
+ * gradient arrays, optimizer state and recorded tapes are all kept out of
+ * workspaces, and step() only returns the loss value.
+ */
+public class TrainingWorkspace {
+    private static final WorkspaceConfiguration CONFIGURATION = WorkspaceConfiguration.builder()
+            .initialSize(0)
+            .policyAllocation(AllocationPolicy.STRICT)
+            .policyLearning(LearningPolicy.FIRST_LOOP)
+            .policyReset(ResetPolicy.BLOCK_LEFT)
+            .policySpill(SpillPolicy.REALLOCATE)
+            .build();
+
+    private final String id;
+    private long steps;
+    private long lastStepBytes;
+    private long spilledBytes;
+
+    public TrainingWorkspace() {
+        this("TRAINING_STEP_" + System.identityHashCode(new Object()));
+    }
+
+    /**
+     * @param id The id of the workspace, unique per training loop.
+     */
+    public TrainingWorkspace(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Runs one training step inside the workspace.
+     *
+     * @param step The step, e.g. zeroGrad, call, backward and optimizer step, returning the loss.
+     * @return the loss returned by the step.
+     */
+    public double step(Supplier<Double> step) {
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().getAndActivateWorkspace(CONFIGURATION, id)) {
+            long spilled = spilledSize(ws);
+            double loss = step.get();
+
+            lastStepBytes = ws.getPrimaryOffset();
+            spilledBytes += spilledSize(ws) - spilled;
+            steps++;
+
+            return loss;
+        }
+    }
+
+    /**
+     * Only Nd4jWorkspace tracks spilled allocations, MemoryWorkspace has no
+     * accessor for them.
+     */
+    private static long spilledSize(MemoryWorkspace ws) {
+        return ws instanceof Nd4jWorkspace ? ((Nd4jWorkspace) ws).getSpilledSize() : 0;
+    }
+
+    /**
+     * @return the size of the workspace's memory, 0 before the first step ended.
+     */
+    public long getWorkspaceBytes() {
+        MemoryWorkspace ws = Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(CONFIGURATION, id);
+        return ws.getCurrentSize();
+    }
+
+    /**
+     * @return the bytes the last step allocated from the workspace.
+     */
+    public long getLastStepBytes() {
+        return lastStepBytes;
+    }
+
+    /**
+     * @return the bytes allocated outside of the workspace because it was
+     * full, summed over all steps. Stays flat once the workspace is sized.
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public long getStepCount() {
+        return steps;
+    }
+}
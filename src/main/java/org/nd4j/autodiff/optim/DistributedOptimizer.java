@@ -0,0 +1,249 @@
+package org.nd4j.autodiff.optim;
+
+import org.nd4j.autodiff.distributed.RingAllReduce;
+import org.nd4j.autodiff.nn.NativeExecution;
+import org.nd4j.autodiff.nn.Parameter;
+import org.nd4j.common.function.Consumer;
+import org.nd4j.common.function.Supplier;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Averages gradients over all ranks of a ring before another optimizer
+ * steps, so every rank applies the same update to its replica.
+ *
+ * The parameters are grouped into buckets in reverse order, the order
+ * backward produces their gradients in. A bucket is reduced on a
+ * communication thread as soon as backward finalized all of its gradients,
+ * while the gradients of the buckets after it are still being computed.
+ * step() marks every remaining gradient ready, waits for the reduction and
+ * then runs the wrapped optimizer. Gradients are reduced in the data type
+ * of their parameters.
+ *
+ * The optimizer hooks into the gradients of its parameters until it is
+ * closed.
+ */
+public class DistributedOptimizer extends Optimizer implements AutoCloseable {
+    /**
+     * Number of gradient values reduced together, 1M floats or 4MB.
+     */
+    public static final long DEFAULT_BUCKET_SIZE = 1 << 20;
+
+    private final Optimizer optimizer;
+    private final RingAllReduce ring;
+    private final List<List<Parameter>> buckets = new ArrayList<>();
+    private final Map<Parameter, Integer> bucketOf = new IdentityHashMap<>();
+    private final ExecutorService communication;
+    private final Consumer<Parameter> hook = this::gradientReady;
+
+    private CountDownLatch[] pending;
+    private Map<Parameter, Boolean> ready;
+    private Future<?> round;
+
+    public DistributedOptimizer(Optimizer optimizer, RingAllReduce ring) {
+        this(optimizer, ring, DEFAULT_BUCKET_SIZE);
+    }
+
+    /**
+     * @param optimizer The optimizer to step with the averaged gradients.
+     * @param ring The ring connecting the ranks.
+     * @param bucketSize The number of gradient values to reduce at once.
+     */
+    public DistributedOptimizer(Optimizer optimizer, RingAllReduce ring, long bucketSize) {
+        super(optimizer.parameters);
+        this.optimizer = optimizer;
+        this.ring = ring;
+
+        List<Parameter> ordered = new ArrayList<>();
+        for (Parameter p : parameters) {
+            if (p.isRequiresGrad()) {
+                ordered.add(p);
+                p.addGradientHook(hook);
+            }
+        }
+        Collections.reverse(ordered);
+
+        List<Parameter> bucket = new ArrayList<>();
+        long size = 0;
+        for (Parameter p : ordered) {
+            bucket.add(p);
+            bucketOf.put(p, buckets.size());
+            size += p.getArr().length();
+            if (size >= bucketSize) {
+                buckets.add(bucket);
+                bucket = new ArrayList<>();
+                size = 0;
+            }
+        }
+        if (!bucket.isEmpty()) {
+            buckets.add(bucket);
+        }
+
+        communication = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "distributed-optimizer-" + ring.getRank());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Marks the gradient of a parameter as final for this step. Once every
+     * gradient of its bucket is ready the bucket is reduced in the
+     * background. Called by the parameters' gradient hooks during backward.
+     *
+     * @param parameter The parameter whose gradient was computed.
+     */
+    public synchronized void gradientReady(Parameter parameter) {
+        Integer bucket = bucketOf.get(parameter);
+        if (bucket == null) {
+            return;
+        }
+
+        if (round == null) {
+            startRound();
+        }
+        if (ready.put(parameter, Boolean.TRUE) == null) {
+            pending[bucket].countDown();
+        }
+    }
+
+    private void startRound() {
+        pending = new CountDownLatch[buckets.size()];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = new CountDownLatch(buckets.get(i).size());
+        }
+        ready = new IdentityHashMap<>();
+
+        final CountDownLatch[] latches = pending;
+        round = communication.submit(() -> {
+            for (int i = 0; i < buckets.size(); i++) {
+                latches[i].await();
+                reduce(buckets.get(i));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Replaces the gradients of the bucket with their average over all
+     * ranks. Parameters without a gradient contribute zeros. Parameters of
+     * each data type are reduced together, in that type.
+     */
+    private void reduce(List<Parameter> bucket) throws IOException {
+        Map<DataType, List<Parameter>> byType = new LinkedHashMap<>();
+        for (Parameter p : bucket) {
+            byType.computeIfAbsent(p.getArr().dataType(), type -> new ArrayList<>()).add(p);
+        }
+
+        for (Map.Entry<DataType, List<Parameter>> group : byType.entrySet()) {
+            List<Parameter> parameters = group.getValue();
+            INDArray values = NativeExecution.run(() -> flatten(group.getKey(), parameters));
+            ring.allReduce(values);
+            NativeExecution.execute(() -> average(values, parameters));
+        }
+    }
+
+    private static INDArray flatten(DataType type, List<Parameter> parameters) {
+        long length = 0;
+        for (Parameter p : parameters) {
+            length += p.getArr().length();
+        }
+
+        INDArray values = Nd4j.create(type, length);
+        long offset = 0;
+        for (Parameter p : parameters) {
+            long size = p.getArr().length();
+            if (p.hasGradient()) {
+                values.get(NDArrayIndex.interval(offset, offset + size)).assign(p.getGrad().reshape(size));
+            }
+            offset += size;
+        }
+
+        return values;
+    }
+
+    private void average(INDArray values, List<Parameter> parameters) {
+        values.divi(ring.getWorldSize());
+        long offset = 0;
+        for (Parameter p : parameters) {
+            long size = p.getArr().length();
+            INDArray average = values.get(NDArrayIndex.interval(offset, offset + size)).reshape(p.getArr().shape());
+            if (p.hasGradient()) {
+                p.getGrad().assign(average);
+            } else {
+                p.setGrad(average.dup());
+            }
+            offset += size;
+        }
+    }
+
+    @Override
+    public double step(Supplier<Double> lossClosure) {
+        double loss = 0.0;
+        if (lossClosure != null) {
+            loss = lossClosure.get();
+        }
+
+        Future<?> reduction;
+        synchronized (this) {
+            if (round == null) {
+                startRound();
+            }
+            for (Parameter p : bucketOf.keySet()) {
+                gradientReady(p);
+            }
+            reduction = round;
+            round = null;
+        }
+
+        try {
+            reduction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reducing gradients.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Reducing gradients failed.", e.getCause());
+        }
+
+        optimizer.step();
+
+        return loss;
+    }
+
+    @Override
+    protected void update(int index, Parameter param, INDArray grad) {
+        optimizer.update(index, param, grad);
+    }
+
+    @Override
+    public void zeroGrad(boolean setToNone) {
+        optimizer.zeroGrad(setToNone);
+    }
+
+    /**
+     * Removes the gradient hooks from the parameters and stops the
+     * communication thread. The ring stays open, it belongs to the caller.
+     */
+    @Override
+    public void close() {
+        for (Parameter p : bucketOf.keySet()) {
+            p.removeGradientHook(hook);
+        }
+        communication.shutdownNow();
+    }
+}
@@ -0,0 +1,201 @@
+package org.nd4j.autodiff.optim;
+
+import org.nd4j.autodiff.nn.Module;
+import org.nd4j.autodiff.nn.Parameter;
+import org.nd4j.autodiff.nn.TensorParameter;
+import org.nd4j.common.function.Supplier;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.BooleanIndexing;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Trains a module set to mixed precision with dynamic loss scaling.
+ *
+ * The module runs forward and backward in half precision while the
+ * scaler keeps full precision master copies of its parameters, which the
+ * wrapped optimizer updates. Each step unscales the half precision
+ * gradients into the masters. If any of them overflowed the step is
+ * skipped and the loss scale is reduced; after enough steps without an
+ * overflow the loss scale grows again. The updated masters are then cast
+ * back into the module's parameters.
+ *
+ * The loss scale and the scaled losses are kept in FLOAT, the gradients
+ * are in the compute type. The scale starts at 2^15 so that FLOAT16
+ * gradients up to 2 stay in range. Parameters can not be updated during
+ * backward, every gradient is checked for overflow before any update.
+ */
+public class GradScaler extends Optimizer {
+    public static final double DEFAULT_INIT_SCALE = 32768.0;
+    public static final double DEFAULT_GROWTH_FACTOR = 2.0;
+    public static final double DEFAULT_BACKOFF_FACTOR = 0.5;
+    public static final int DEFAULT_GROWTH_INTERVAL = 2000;
+
+    private final Module module;
+    private final Parameter[] compute;
+    private final Parameter[] masters;
+    private final int[] trainedIndices;
+    private final Optimizer optimizer;
+    private final double growthFactor;
+    private final double backoffFactor;
+    private final int growthInterval;
+
+    private double scale;
+    private int goodSteps;
+    private long skippedSteps;
+
+    public GradScaler(Module module, Function<Collection<Parameter>, Optimizer> optimizer) {
+        this(module, optimizer, DEFAULT_INIT_SCALE, DEFAULT_GROWTH_FACTOR, DEFAULT_BACKOFF_FACTOR, DEFAULT_GROWTH_INTERVAL);
+    }
+
+    /**
+     * @param module The module backward is called on, set to mixed precision.
+     * @param optimizer Creates the optimizer of the master weights, e.g. params -> new Sgd(params, 0.1).
+     * @param initScale The loss scale of the first step.
+     * @param growthFactor The factor the loss scale grows by after growthInterval steps without overflow.
+     * @param backoffFactor The factor the loss scale is reduced by when a step overflowed.
+     * @param growthInterval The number of steps without overflow before the loss scale grows.
+     */
+    public GradScaler(Module module, Function<Collection<Parameter>, Optimizer> optimizer,
+                      double initScale, double growthFactor, double backoffFactor, int growthInterval) {
+        super(module.parameters());
+        this.module = module;
+        this.growthFactor = growthFactor;
+        this.backoffFactor = backoffFactor;
+        this.growthInterval = growthInterval;
+        this.compute = parameters.toArray(new Parameter[0]);
+        this.masters = new Parameter[compute.length];
+        this.trainedIndices = new int[compute.length];
+
+        List<Parameter> trained = new ArrayList<>();
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            for (int i = 0; i < compute.length; i++) {
+                INDArray array = compute[i].getArr();
+                masters[i] = new TensorParameter(array.shape());
+                masters[i].setArray(array.castTo(DataType.FLOAT));
+                masters[i].requiresGrad(compute[i].isRequiresGrad());
+                trainedIndices[i] = compute[i].isRequiresGrad() ? trained.size() : -1;
+                if (compute[i].isRequiresGrad()) {
+                    trained.add(masters[i]);
+                }
+            }
+        }
+        this.optimizer = optimizer.apply(trained);
+
+        setScale(initScale);
+    }
+
+    @Override
+    public double step(Supplier<Double> lossClosure) {
+        double loss = 0.0;
+        if (lossClosure != null) {
+            loss = lossClosure.get();
+        }
+
+        boolean overflow = false;
+        for (int i = 0; i < compute.length; i++) {
+            INDArray grad = compute[i].getGrad();
+            if (!compute[i].isRequiresGrad() || grad == null) {
+                masters[i].zeroGrad(true);
+                continue;
+            }
+
+            INDArray masterGrad = masters[i].getGrad();
+            if (masterGrad == null) {
+                try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                    masterGrad = grad.castTo(DataType.FLOAT);
+                }
+                masters[i].setGrad(masterGrad);
+            } else {
+                masterGrad.assign(grad);
+            }
+            masterGrad.divi(scale);
+
+            if (BooleanIndexing.or(masterGrad, Conditions.isInfinite()) || BooleanIndexing.or(masterGrad, Conditions.isNan())) {
+                overflow = true;
+                break;
+            }
+        }
+
+        if (overflow) {
+            skippedSteps++;
+            goodSteps = 0;
+            setScale(scale * backoffFactor);
+            return loss;
+        }
+
+        optimizer.step();
+        for (int i = 0; i < compute.length; i++) {
+            if (compute[i].isRequiresGrad()) {
+                compute[i].getArr().assign(masters[i].getArr());
+            }
+        }
+        iteration++;
+
+        if (++goodSteps >= growthInterval) {
+            goodSteps = 0;
+            setScale(scale * growthFactor);
+        }
+
+        return loss;
+    }
+
+    /**
+     * Not supported: the gradients are only unscaled and checked for
+     * overflow in step(), after backward.
+     */
+    @Override
+    public Optimizer setOverlapBackward(boolean overlap) {
+        if (overlap) {
+            throw new IllegalStateException("GradScaler checks every gradient for overflow before updating, it can not update during backward.");
+        }
+
+        return super.setOverlapBackward(false);
+    }
+
+    /**
+     * Updates the master of a compute parameter with its unscaled gradient,
+     * as the parameter at its index among the trained masters.
+     */
+    @Override
+    protected void update(int index, Parameter param, INDArray grad) {
+        int trainedIndex = trainedIndices[index];
+        if (trainedIndex >= 0 && masters[index].getGrad() != null) {
+            optimizer.update(trainedIndex, masters[index], masters[index].getGrad());
+        }
+    }
+
+    private void setScale(double scale) {
+        this.scale = scale;
+        module.setLossScale(scale);
+    }
+
+    /**
+     * @return the loss scale the next backward pass runs with.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @return the number of steps skipped because a gradient overflowed.
+     */
+    public long getSkippedSteps() {
+        return skippedSteps;
+    }
+
+    /**
+     * @return the full precision master weights, in the order of the module's parameters.
+     */
+    public List<Parameter> getMasterParameters() {
+        return Arrays.asList(masters);
+    }
+}
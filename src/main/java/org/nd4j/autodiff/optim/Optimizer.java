@@ -1,28 +1,275 @@
 package org.nd4j.autodiff.optim;
 
+import org.nd4j.autodiff.nn.FlatParameters;
+import org.nd4j.autodiff.nn.NativeExecution;
 import org.nd4j.autodiff.nn.Parameter;
+import org.nd4j.common.function.Consumer;
 import org.nd4j.common.function.Supplier;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
+/**
+ * Base class of the optimizers.
+ *
+ * The parameters are indexed once and split into buckets of about the same
+ * number of values. Each step updates the buckets in parallel on a fork-join
+ * pool, so a model with many parameter tensors has no long serial tail
+ * after backward. There are no more buckets than ND4J has native threads,
+ * and every bucket holds a permit of NativeExecution while it runs.
+ * Subclasses keep their per-parameter state in arrays by index and
+ * implement update().
+ *
+ * Optimizers created with Module.flattenParameters update the flat buffer
+ * of all parameters as a single parameter instead, as long as every
+ * parameter is trained.
+ *
+ * With setOverlapBackward(true) each parameter is updated as soon as
+ * backward finalized its gradient, so most of the step runs while
+ * backward is still computing the gradients of earlier layers.
+ */
 public abstract class Optimizer {
+    /**
+     * Below this many values a step runs on the calling thread, forking
+     * would cost more than it saves.
+     */
+    public static final long PARALLEL_THRESHOLD = 1 << 16;
+
     protected Collection<Parameter> parameters;
+    protected int iteration;
+    private Parameter[] indexed;
+    private int[][] buckets;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private Map<Parameter, Integer> indices;
+    private ForkJoinTask<?>[] pending;
+    private Consumer<Parameter> gradientHook;
 
     public Optimizer(Collection<Parameter> parameters) {
         this.parameters = parameters;
     }
 
     public void zeroGrad() {
-        for (Parameter p : parameters) {
-            if (p.hasGradient()) {
-                p.gradient().getArr().muli(0.0);
+        zeroGrad(false);
+    }
+
+    /**
+     * @param setToNone If true the gradients are dropped instead of zeroed,
+     *                  so the next backward writes them without adding.
+     * @see Parameter#zeroGrad(Collection, boolean)
+     */
+    public void zeroGrad(boolean setToNone) {
+        Parameter.zeroGrad(parameters, setToNone);
+    }
+
+    /**
+     * Creates the state of the parameters, called once before the first step.
+     *
+     * @param params The parameters by index.
+     */
+    protected void initialize(Parameter[] params) {
+    }
+
+    /**
+     * Updates one parameter in place with its gradient.
+     *
+     * Called concurrently for different parameters, never for the same one.
+     *
+     * @param index The index of the parameter.
+     * @param param The parameter.
+     * @param grad The gradient of the parameter.
+     */
+    protected abstract void update(int index, Parameter param, INDArray grad);
+
+    private synchronized void prepare() {
+        if (indexed == null) {
+            if (parameters instanceof FlatParameters && ((FlatParameters) parameters).allRequireGrad()) {
+                indexed = new Parameter[]{((FlatParameters) parameters).asParameter()};
+            } else {
+                indexed = parameters.toArray(new Parameter[0]);
+            }
+            buckets = partition(indexed, parallelism());
+            indices = new IdentityHashMap<>();
+            for (int i = 0; i < indexed.length; i++) {
+                indices.put(indexed[i], i);
+            }
+            pending = new ForkJoinTask<?>[indexed.length];
+
+            // Optimizer state lives as long as the optimizer, never in a training step's workspace.
+            try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                NativeExecution.execute(() -> initialize(indexed));
             }
         }
     }
 
-    public abstract double step(Supplier<Double> lossClosure);
+    /**
+     * Sets whether parameters are updated during backward, as soon as their
+     * gradient is final, instead of all at once in step(). step() then
+     * waits for those updates and updates the parameters that had none.
+     *
+     * Gradients have to be complete after a single backward pass, so this
+     * does not work with gradients accumulated over several passes. The
+     * flat buffer of flattened parameters is always updated in step().
+     *
+     * @param overlap Whether to update during backward.
+     * @return this optimizer.
+     */
+    public Optimizer setOverlapBackward(boolean overlap) {
+        if (overlap && gradientHook == null) {
+            prepare();
+            gradientHook = this::gradientReady;
+            for (Parameter p : indexed) {
+                p.addGradientHook(gradientHook);
+            }
+        } else if (!overlap && gradientHook != null) {
+            for (Parameter p : indexed) {
+                p.removeGradientHook(gradientHook);
+            }
+            gradientHook = null;
+        }
+
+        return this;
+    }
+
+    private void gradientReady(Parameter param) {
+        Integer index = indices.get(param);
+        if (index != null && pending[index] == null) {
+            pending[index] = pool.submit(() -> NativeExecution.execute(() -> update(index, param, param.getGrad())));
+        }
+    }
+
+    public double step(Supplier<Double> lossClosure) {
+        prepare();
+
+        double loss = 0.0;
+        if (lossClosure != null) {
+            loss = lossClosure.get();
+        }
+
+        if (buckets.length == 1 || NativeExecution.isHeld()) {
+            // A caller holding a permit can not wait for buckets that need one.
+            NativeExecution.execute(() -> {
+                for (int[] bucket : buckets) {
+                    updateBucket(bucket);
+                }
+            });
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int[] bucket : buckets) {
+                tasks.add(() -> {
+                    NativeExecution.execute(() -> updateBucket(bucket));
+                    return null;
+                });
+            }
+            try {
+                for (Future<Void> task : pool.invokeAll(tasks)) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted during the optimizer step.", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("The optimizer step failed.", e.getCause());
+            }
+        }
+
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i] != null) {
+                pending[i].join();
+                pending[i] = null;
+            }
+        }
+        iteration++;
+
+        return loss;
+    }
 
     public double step() {
         return step(null);
     }
+
+    private void updateBucket(int[] bucket) {
+        for (int index : bucket) {
+            Parameter param = indexed[index];
+            INDArray grad = param.getGrad();
+            if (grad != null && pending[index] == null) {
+                update(index, param, grad);
+            }
+        }
+    }
+
+    /**
+     * Sets the pool steps run on.
+     *
+     * @param pool The pool to use, its parallelism decides the number of
+     *             buckets, up to the number of native threads.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        if (indexed != null) {
+            buckets = partition(indexed, parallelism());
+        }
+    }
+
+    private int parallelism() {
+        return Math.min(pool.getParallelism(), NativeExecution.getParallelism());
+    }
+
+    /**
+     * Splits the parameters into buckets with about the same number of
+     * values, assigning the largest parameters first to the smallest bucket.
+     */
+    static int[][] partition(Parameter[] params, int parallelism) {
+        long total = 0;
+        for (Parameter p : params) {
+            total += p.getArr().length();
+        }
+
+        int count = total < PARALLEL_THRESHOLD ? 1 : Math.max(1, Math.min(parallelism, params.length));
+        Integer[] order = new Integer[params.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> params[i].getArr().length()).reversed());
+
+        List<List<Integer>> assigned = new ArrayList<>();
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            assigned.add(new ArrayList<>());
+        }
+        for (int index : order) {
+            int smallest = 0;
+            for (int b = 1; b < count; b++) {
+                if (sizes[b] < sizes[smallest]) {
+                    smallest = b;
+                }
+            }
+            assigned.get(smallest).add(index);
+            sizes[smallest] += params[index].getArr().length();
+        }
+
+        int[][] ret = new int[count][];
+        for (int b = 0; b < count; b++) {
+            List<Integer> bucket = assigned.get(b);
+            ret[b] = new int[bucket.size()];
+            for (int i = 0; i < ret[b].length; i++) {
+                ret[b][i] = bucket.get(i);
+            }
+            Arrays.sort(ret[b]);
+        }
+
+        return ret;
+    }
 }
@@ -0,0 +1,173 @@
+package org.nd4j.autodiff.parallel;
+
+import org.nd4j.autodiff.nn.InvalidModuleException;
+import org.nd4j.autodiff.nn.Module;
+import org.nd4j.autodiff.nn.NativeExecution;
+import org.nd4j.autodiff.nn.Parameter;
+import org.nd4j.autodiff.optim.Optimizer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trains a model on several cores by splitting every batch between
+ * replicas of its loss module.
+ *
+ * Each worker runs the forward and backward pass of its slice of the batch
+ * on its own thread and tape. The gradients are averaged, weighted by the
+ * size of each slice, with a tree reduction into the gradients of the
+ * original module and the optimizer takes one step. Passes and sums hold a
+ * permit of NativeExecution, so at most as many of them run at once as
+ * ND4J has native threads.
+ *
+ * The replicas' parameters share the arrays of the original parameters
+ * and their tapes read those arrays directly, so the weights the optimizer
+ * updated in place are what every replica computes with next, without a
+ * broadcast. Replacing a parameter's array with setArray is not seen by
+ * the replicas.
+ */
+public class DataParallelTrainer implements AutoCloseable {
+    private final Module[] workers;
+    private final Parameter[][] parameters;
+    private final Optimizer optimizer;
+    private final ExecutorService executor;
+
+    /**
+     * @param criterion The loss module, called with the features and labels of a batch.
+     * @param optimizer The optimizer of the model's parameters.
+     * @param workers The number of replicas and threads to train with.
+     */
+    public DataParallelTrainer(Module criterion, Optimizer optimizer, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed, got " + workers + ".");
+        }
+
+        this.optimizer = optimizer;
+        this.workers = new Module[workers];
+        this.parameters = new Parameter[workers][];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = i == 0 ? criterion : criterion.replica();
+            this.parameters[i] = this.workers[i].parameters().toArray(new Parameter[0]);
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "data-parallel-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs one training step on a batch.
+     *
+     * @param features The inputs of the batch, the first axis is the batch axis.
+     * @param labels The labels of the batch.
+     * @return the loss of the batch.
+     */
+    public double step(INDArray features, INDArray labels) {
+        long batchSize = features.size(0);
+        int active = (int) Math.min(workers.length, batchSize);
+
+        List<Callable<Double>> passes = new ArrayList<>();
+        long start = 0;
+        for (int w = 0; w < active; w++) {
+            long end = start + (batchSize - start) / (active - w);
+            final Module worker = workers[w];
+            final Parameter[] params = parameters[w];
+            final INDArray x = rows(features, start, end);
+            final INDArray y = rows(labels, start, end);
+            final double scale = (end - start) / (double) batchSize;
+
+            passes.add(() -> NativeExecution.run(() -> {
+                worker.zeroGrad(true);
+                double loss = worker.call(x, y).sumNumber().doubleValue();
+                worker.backward();
+                for (Parameter p : params) {
+                    if (p.hasGradient()) {
+                        p.getGrad().muli(scale);
+                    }
+                }
+                return loss * scale;
+            }));
+            start = end;
+        }
+
+        double loss = 0.0;
+        for (double workerLoss : invokeAll(passes)) {
+            loss += workerLoss;
+        }
+
+        reduce(active);
+        optimizer.step();
+
+        return loss;
+    }
+
+    /**
+     * Sums the gradients of the active workers into the first one, pairing
+     * workers at doubling distances so every level runs in parallel.
+     */
+    private void reduce(int active) {
+        for (int stride = 1; stride < active; stride *= 2) {
+            List<Callable<Double>> sums = new ArrayList<>();
+            for (int i = 0; i + stride < active; i += 2 * stride) {
+                final Parameter[] target = parameters[i];
+                final Parameter[] source = parameters[i + stride];
+                sums.add(() -> NativeExecution.run(() -> {
+                    for (int p = 0; p < target.length; p++) {
+                        if (target[p].hasGradient() && source[p].hasGradient()) {
+                            target[p].getGrad().addi(source[p].getGrad());
+                        }
+                    }
+                    return 0.0;
+                }));
+            }
+            invokeAll(sums);
+        }
+    }
+
+    private List<Double> invokeAll(List<Callable<Double>> tasks) {
+        List<Double> results = new ArrayList<>();
+        try {
+            for (Future<Double> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidModuleException("Interrupted while training.", e);
+        } catch (ExecutionException e) {
+            throw new InvalidModuleException("A worker failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        return results;
+    }
+
+    private static INDArray rows(INDArray array, long from, long to) {
+        INDArrayIndex[] indices = new INDArrayIndex[array.rank()];
+        indices[0] = NDArrayIndex.interval(from, to);
+        for (int axis = 1; axis < indices.length; axis++) {
+            indices[axis] = NDArrayIndex.all();
+        }
+
+        return array.get(indices);
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,172 @@
+package org.nd4j.autodiff.parallel;
+
+import org.nd4j.autodiff.nn.InvalidModuleException;
+import org.nd4j.autodiff.nn.Module;
+import org.nd4j.autodiff.nn.NativeExecution;
+import org.nd4j.autodiff.nn.Parameter;
+import org.nd4j.autodiff.optim.Optimizer;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Trains a model Hogwild-style: several threads run their own batches and
+ * apply their updates to the shared parameter arrays without any locking.
+ *
+ * Every worker has a replica of the loss module and its own optimizer, so
+ * tapes, gradients and optimizer state are per worker while the weights
+ * are shared. Updates from different workers may interleave; for sparse
+ * models they rarely touch the same weights, which is what makes this
+ * converge without synchronization.
+ *
+ * Staleness is the number of updates other workers applied between a
+ * worker reading the weights for its forward pass and finishing its own
+ * update. The native work of a step holds a permit of NativeExecution, so
+ * no more workers run native ops at once than ND4J has native threads.
+ */
+public class HogwildTrainer implements AutoCloseable {
+    private final Module[] workers;
+    private final Optimizer[] optimizers;
+    private final ExecutorService executor;
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong totalStaleness = new AtomicLong();
+    private final AtomicLong maxStaleness = new AtomicLong();
+
+    private long steps;
+    private long examples;
+    private long elapsedNanos;
+
+    /**
+     * @param criterion The loss module, called with the features and labels of a batch.
+     * @param optimizer Creates the optimizer of each worker for its parameters, e.g. params -> new Sgd(params, 0.1).
+     * @param workers The number of threads to train with.
+     */
+    public HogwildTrainer(Module criterion, Function<Collection<Parameter>, Optimizer> optimizer, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed, got " + workers + ".");
+        }
+
+        this.workers = new Module[workers];
+        this.optimizers = new Optimizer[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = i == 0 ? criterion : criterion.replica();
+            this.optimizers[i] = optimizer.apply(this.workers[i].parameters());
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "hogwild-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Trains on every batch of the iterator once. The workers take batches
+     * from the iterator as they finish their previous ones.
+     *
+     * @param data The batches to train on.
+     * @return the mean loss of the batches.
+     */
+    public double fit(DataSetIterator data) {
+        AtomicLong batches = new AtomicLong();
+        AtomicLong rows = new AtomicLong();
+        List<Callable<Double>> loops = new ArrayList<>();
+        for (int w = 0; w < workers.length; w++) {
+            final Module worker = workers[w];
+            final Optimizer optimizer = optimizers[w];
+            loops.add(() -> {
+                double loss = 0.0;
+                while (true) {
+                    DataSet batch;
+                    synchronized (data) {
+                        if (!data.hasNext()) {
+                            return loss;
+                        }
+                        batch = data.next();
+                    }
+
+                    long read = version.get();
+                    loss += NativeExecution.run(() -> {
+                        optimizer.zeroGrad();
+                        double batchLoss = worker.call(batch.getFeatures(), batch.getLabels()).sumNumber().doubleValue();
+                        worker.backward();
+                        return batchLoss;
+                    });
+                    optimizer.step();
+
+                    long staleness = version.getAndIncrement() - read;
+
+                    totalStaleness.addAndGet(staleness);
+                    maxStaleness.accumulateAndGet(staleness, Math::max);
+                    batches.incrementAndGet();
+                    rows.addAndGet(batch.getFeatures().size(0));
+                }
+            });
+        }
+
+        long started = System.nanoTime();
+        double loss = 0.0;
+        try {
+            for (Future<Double> result : executor.invokeAll(loops)) {
+                loss += result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidModuleException("Interrupted while training.", e);
+        } catch (ExecutionException e) {
+            throw new InvalidModuleException("A worker failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        elapsedNanos += System.nanoTime() - started;
+        steps += batches.get();
+        examples += rows.get();
+
+        return batches.get() == 0 ? 0.0 : loss / batches.get();
+    }
+
+    /**
+     * @return the average number of updates a worker's update was behind.
+     */
+    public double getMeanStaleness() {
+        return steps == 0 ? 0.0 : totalStaleness.get() / (double) steps;
+    }
+
+    public long getMaxStaleness() {
+        return maxStaleness.get();
+    }
+
+    /**
+     * @return the updates applied per second while fitting.
+     */
+    public double getStepsPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : steps * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the examples trained on per second while fitting.
+     */
+    public double getExamplesPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : examples * 1e9 / elapsedNanos;
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
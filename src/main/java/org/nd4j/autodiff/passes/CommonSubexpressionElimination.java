@@ -0,0 +1,126 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.BaseOp;
+import org.nd4j.linalg.api.ops.DynamicCustomOp;
+import org.nd4j.linalg.api.ops.ReduceOp;
+import org.nd4j.linalg.api.ops.ScalarOp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges ops of the same type, with the same inputs and properties, into
+ * one op. Random ops are never merged.
+ *
+ * The properties compared are the op's declared properties together with
+ * its arguments: the scalar of scalar ops, the dimensions and extra
+ * arguments of legacy ops and the integer, floating point, boolean and
+ * data type arguments of custom ops. Ops of any other kind are never
+ * merged, since two of them may differ in state the pass can not read.
+ */
+public class CommonSubexpressionElimination implements GraphPass {
+    @Override
+    public String name() {
+        return "common-subexpression-elimination";
+    }
+
+    @Override
+    public int apply(SameDiff sd, PassContext context) {
+        Map<String, SameDiffOp> seen = new HashMap<>();
+        int removed = 0;
+
+        for (SameDiffOp op : new ArrayList<>(sd.getOps().values())) {
+            List<String> inputs = GraphSurgery.inputs(op);
+            if (inputs.isEmpty() || GraphSurgery.isRandom(op) || GraphSurgery.hasControlDependencies(op)) {
+                continue;
+            }
+
+            String key = key(op);
+            if (key == null) {
+                continue;
+            }
+
+            SameDiffOp original = seen.get(key);
+            if (original == null) {
+                seen.put(key, op);
+                continue;
+            }
+
+            List<String> outputs = op.getOutputsOfOp();
+            boolean isOutput = false;
+            for (String output : outputs) {
+                isOutput |= context.isOutput(output);
+            }
+            if (isOutput || outputs.size() != original.getOutputsOfOp().size()) {
+                continue;
+            }
+
+            for (int i = 0; i < outputs.size(); i++) {
+                GraphSurgery.rewire(sd, outputs.get(i), original.getOutputsOfOp().get(i));
+            }
+            GraphSurgery.removeOp(sd, op.getName(), true);
+            removed++;
+        }
+
+        return removed;
+    }
+
+    /**
+     * @return the type, inputs and arguments of the op, or null if they can
+     * not all be read.
+     */
+    private String key(SameDiffOp op) {
+        DifferentialFunction function = op.getOp();
+        Map<String, Object> properties;
+        try {
+            properties = new TreeMap<>(function.propertiesForFunction());
+        } catch (RuntimeException e) {
+            // Ops that can not describe their properties are never merged.
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(function.getClass().getName());
+        sb.append(op.getInputsToOp());
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            append(sb, property.getKey(), property.getValue());
+        }
+
+        if (function instanceof DynamicCustomOp) {
+            DynamicCustomOp custom = (DynamicCustomOp) function;
+            append(sb, "iArgs", custom.iArgs());
+            append(sb, "tArgs", custom.tArgs());
+            append(sb, "bArgs", custom.bArgs());
+            append(sb, "dArgs", custom.dArgs());
+        } else if (function instanceof BaseOp) {
+            if (function instanceof ScalarOp) {
+                INDArray scalar = ((ScalarOp) function).scalar();
+                if (scalar == null) {
+                    return null;
+                }
+                append(sb, "scalar", scalar.dataType() + ":" + scalar.getDouble(0));
+            }
+            if (function instanceof ReduceOp) {
+                append(sb, "keepDims", ((ReduceOp) function).isKeepDims());
+            }
+            append(sb, "dimensions", function.getDimensions());
+            append(sb, "extraArgs", ((BaseOp) function).extraArgs());
+        } else {
+            return null;
+        }
+
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String name, Object value) {
+        sb.append(';').append(name).append('=');
+        sb.append(Arrays.deepToString(new Object[]{value}));
+    }
+}
@@ -0,0 +1,101 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates ops whose inputs are all constants or frozen parameters once,
+ * replacing them with constants. For example a frozen weight scaled by a
+ * frozen gain, weight.mul(gain), is computed here instead of on every
+ * forward pass.
+ *
+ * The folded values are taken from the parameter arrays at record time,
+ * so frozen parameters must not be modified in place afterwards.
+ */
+public class ConstantFolding implements GraphPass {
+    @Override
+    public String name() {
+        return "constant-folding";
+    }
+
+    @Override
+    public int apply(SameDiff sd, PassContext context) {
+        Map<String, Variable> variables = sd.getVariables();
+
+        // Ops are stored in the order they were recorded, so every input is
+        // known to be constant or not before its consumers are visited.
+        Set<String> constant = new HashSet<>();
+        List<SameDiffOp> folded = new ArrayList<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            List<String> inputs = GraphSurgery.inputs(op);
+            if (inputs.isEmpty() || GraphSurgery.isRandom(op) || GraphSurgery.hasControlDependencies(op)) {
+                continue;
+            }
+
+            boolean foldable = true;
+            for (String input : inputs) {
+                VariableType type = variables.get(input).getVariable().getVariableType();
+                if (!(type == VariableType.CONSTANT || context.isFrozen(input) || constant.contains(input))) {
+                    foldable = false;
+                    break;
+                }
+            }
+
+            if (foldable) {
+                folded.add(op);
+                constant.addAll(op.getOutputsOfOp());
+            }
+        }
+
+        if (folded.isEmpty()) {
+            return 0;
+        }
+
+        // Only values read by ops that stay, or by the caller, have to be computed.
+        Set<String> kept = new LinkedHashSet<>();
+        Set<String> foldedOps = new HashSet<>();
+        for (SameDiffOp op : folded) {
+            foldedOps.add(op.getName());
+        }
+        for (String name : constant) {
+            boolean read = context.isOutput(name);
+            for (String consumer : GraphSurgery.consumers(sd, name)) {
+                read |= !foldedOps.contains(consumer);
+            }
+            if (read) {
+                kept.add(name);
+            }
+        }
+
+        Map<String, INDArray> values = kept.isEmpty()
+                ? Collections.<String, INDArray>emptyMap()
+                : sd.output(Collections.<String, INDArray>emptyMap(), kept.toArray(new String[0]));
+
+        for (SameDiffOp op : folded) {
+            GraphSurgery.removeOp(sd, op.getName(), false);
+            for (String output : op.getOutputsOfOp()) {
+                if (kept.contains(output)) {
+                    Variable v = variables.get(output);
+                    v.setOutputOfOp(null);
+                    v.getVariable().setVariableType(VariableType.CONSTANT);
+                    sd.associateArrayWithVariable(values.get(output).detach(), v.getVariable());
+                } else {
+                    variables.remove(output);
+                }
+            }
+        }
+
+        return folded.size();
+    }
+}
@@ -0,0 +1,49 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes ops that no output or loss of the tape depends on.
+ */
+public class DeadNodeElimination implements GraphPass {
+    @Override
+    public String name() {
+        return "dead-node-elimination";
+    }
+
+    @Override
+    public int apply(SameDiff sd, PassContext context) {
+        Set<String> live = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(context.getOutputs());
+        while (!pending.isEmpty()) {
+            Variable v = sd.getVariables().get(pending.pop());
+            if (v == null || v.getOutputOfOp() == null || !live.add(v.getOutputOfOp())) {
+                continue;
+            }
+
+            SameDiffOp op = sd.getOps().get(v.getOutputOfOp());
+            pending.addAll(GraphSurgery.inputs(op));
+            if (op.getVarControlDeps() != null) {
+                pending.addAll(op.getVarControlDeps());
+            }
+        }
+
+        int removed = 0;
+        for (String name : new ArrayList<>(sd.getOps().keySet())) {
+            if (!live.contains(name) && !GraphSurgery.hasControlDependencies(sd.getOps().get(name))) {
+                GraphSurgery.removeOp(sd, name, true);
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+}
@@ -0,0 +1,22 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+
+/**
+ * A rewrite of a recorded tape that runs before its first execution.
+ */
+public interface GraphPass {
+    /**
+     * @return the name the pass is reported and toggled under.
+     */
+    String name();
+
+    /**
+     * Rewrites the tape in place.
+     *
+     * @param sd The tape to rewrite.
+     * @param context The variables the pass has to keep or may treat as constant.
+     * @return the number of ops removed from the tape.
+     */
+    int apply(SameDiff sd, PassContext context);
+}
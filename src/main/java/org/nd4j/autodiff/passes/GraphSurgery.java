@@ -0,0 +1,85 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Low level edits of a tape's op and variable tables shared by the passes.
+ */
+final class GraphSurgery {
+    private GraphSurgery() {
+    }
+
+    static List<String> inputs(SameDiffOp op) {
+        List<String> inputs = op.getInputsToOp();
+        return inputs == null ? Collections.<String>emptyList() : inputs;
+    }
+
+    static List<String> consumers(SameDiff sd, String variable) {
+        List<String> consumers = sd.getVariables().get(variable).getInputsForOp();
+        return consumers == null ? Collections.<String>emptyList() : consumers;
+    }
+
+    static boolean hasControlDependencies(SameDiffOp op) {
+        return (op.getControlDeps() != null && !op.getControlDeps().isEmpty())
+                || (op.getVarControlDeps() != null && !op.getVarControlDeps().isEmpty())
+                || (op.getControlDepFor() != null && !op.getControlDepFor().isEmpty());
+    }
+
+    static boolean isRandom(SameDiffOp op) {
+        return op.getOp().opName().contains("random") || op.getOp().opName().contains("dropout");
+    }
+
+    /**
+     * Makes every op that reads from one variable read from another one.
+     */
+    static void rewire(SameDiff sd, String from, String to) {
+        Map<String, Variable> variables = sd.getVariables();
+        Variable source = variables.get(from);
+        Variable target = variables.get(to);
+        if (source.getInputsForOp() == null) {
+            return;
+        }
+
+        for (String consumer : source.getInputsForOp()) {
+            List<String> inputs = sd.getOps().get(consumer).getInputsToOp();
+            for (int i = 0; i < inputs.size(); i++) {
+                if (inputs.get(i).equals(from)) {
+                    inputs.set(i, to);
+                }
+            }
+            if (target.getInputsForOp() == null) {
+                target.setInputsForOp(new ArrayList<String>());
+            }
+            target.getInputsForOp().add(consumer);
+        }
+        source.setInputsForOp(new ArrayList<String>());
+    }
+
+    /**
+     * Removes an op, and optionally its output variables, unlinking it
+     * from the variables it read.
+     */
+    static void removeOp(SameDiff sd, String name, boolean removeOutputs) {
+        SameDiffOp op = sd.getOps().remove(name);
+        Map<String, Variable> variables = sd.getVariables();
+        for (String input : inputs(op)) {
+            Variable v = variables.get(input);
+            if (v != null && v.getInputsForOp() != null) {
+                v.getInputsForOp().remove(name);
+            }
+        }
+
+        if (removeOutputs && op.getOutputsOfOp() != null) {
+            for (String output : op.getOutputsOfOp()) {
+                variables.remove(output);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+
+import java.util.ArrayList;
+
+/**
+ * Removes identity ops by making their consumers read the identity's input.
+ */
+public class IdentityRemoval implements GraphPass {
+    @Override
+    public String name() {
+        return "identity-removal";
+    }
+
+    @Override
+    public int apply(SameDiff sd, PassContext context) {
+        int removed = 0;
+        for (SameDiffOp op : new ArrayList<>(sd.getOps().values())) {
+            if (!"identity".equals(op.getOp().opName())
+                    || GraphSurgery.inputs(op).size() != 1
+                    || GraphSurgery.hasControlDependencies(op)) {
+                continue;
+            }
+
+            String output = op.getOutputsOfOp().get(0);
+            if (context.isOutput(output)) {
+                continue;
+            }
+
+            GraphSurgery.rewire(sd, output, GraphSurgery.inputs(op).get(0));
+            GraphSurgery.removeOp(sd, op.getName(), true);
+            removed++;
+        }
+
+        return removed;
+    }
+}
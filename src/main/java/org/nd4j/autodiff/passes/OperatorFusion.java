@@ -0,0 +1,77 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.linalg.api.ops.ScalarOp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fuses a matmul with bias followed by a ReLU, the ops Linear and
+ * nn.relu record, into a single relu_layer op. The fused op writes one
+ * output instead of two and has its own backward pass.
+ *
+ * Conv2D already records its bias inside the conv2d op, and there are no
+ * fused kernels for sigmoid or tanh, so those chains are left alone.
+ *
+ * Only inference tapes are fused. The backward pass of relu_layer
+ * recomputes the matmul with bias to find where the ReLU was active, so a
+ * fused training tape runs one more matmul per layer in every backward
+ * pass, which costs more than the saved output.
+ */
+public class OperatorFusion implements GraphPass {
+    @Override
+    public String name() {
+        return "operator-fusion";
+    }
+
+    @Override
+    public int apply(SameDiff sd, PassContext context) {
+        if (context.isTraining()) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (SameDiffOp linear : new ArrayList<>(sd.getOps().values())) {
+            if (!sd.getOps().containsKey(linear.getName())
+                    || !"xw_plus_b".equals(linear.getOp().opName())
+                    || GraphSurgery.inputs(linear).size() != 3
+                    || GraphSurgery.hasControlDependencies(linear)) {
+                continue;
+            }
+
+            String product = linear.getOutputsOfOp().get(0);
+            List<String> consumers = GraphSurgery.consumers(sd, product);
+            if (context.isOutput(product) || consumers.size() != 1) {
+                continue;
+            }
+
+            SameDiffOp relu = sd.getOps().get(consumers.get(0));
+            if (!isPlainRelu(relu) || context.isOutput(relu.getOutputsOfOp().get(0))) {
+                continue;
+            }
+
+            List<String> inputs = GraphSurgery.inputs(linear);
+            SDVariable fused = sd.nn().reluLayer(
+                    sd.getVariable(inputs.get(0)),
+                    sd.getVariable(inputs.get(1)),
+                    sd.getVariable(inputs.get(2)));
+
+            GraphSurgery.rewire(sd, relu.getOutputsOfOp().get(0), fused.name());
+            GraphSurgery.removeOp(sd, relu.getName(), true);
+            GraphSurgery.removeOp(sd, linear.getName(), true);
+            removed++;
+        }
+
+        return removed;
+    }
+
+    private boolean isPlainRelu(SameDiffOp op) {
+        return "relu".equals(op.getOp().opName())
+                && op.getOp() instanceof ScalarOp
+                && ((ScalarOp) op.getOp()).scalar().getDouble(0) == 0.0
+                && !GraphSurgery.hasControlDependencies(op);
+    }
+}
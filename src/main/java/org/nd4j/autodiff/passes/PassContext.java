@@ -0,0 +1,39 @@
+package org.nd4j.autodiff.passes;
+
+import java.util.Set;
+
+/**
+ * What a graph pass needs to know about the module that recorded the tape.
+ */
+public class PassContext {
+    private final Set<String> outputs;
+    private final Set<String> frozen;
+    private final boolean training;
+
+    /**
+     * @param outputs Variables that are read after execution (outputs and losses), they must survive every pass.
+     * @param frozen Variables of parameters that do not require gradients and may be treated as constants.
+     * @param training Whether the tape will be differentiated, i.e. it was recorded in training or has a loss.
+     */
+    public PassContext(Set<String> outputs, Set<String> frozen, boolean training) {
+        this.outputs = outputs;
+        this.frozen = frozen;
+        this.training = training;
+    }
+
+    public boolean isOutput(String variable) {
+        return outputs.contains(variable);
+    }
+
+    public boolean isFrozen(String variable) {
+        return frozen.contains(variable);
+    }
+
+    public boolean isTraining() {
+        return training;
+    }
+
+    public Set<String> getOutputs() {
+        return outputs;
+    }
+}
@@ -0,0 +1,74 @@
+package org.nd4j.autodiff.passes;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An ordered list of graph passes, each of which can be turned on or off.
+ *
+ * A module runs its pipeline on every tape it records, before the tape is
+ * executed for the first time.
+ */
+public class PassPipeline {
+    private final List<GraphPass> passes = new ArrayList<>();
+    private final Set<String> disabled = new HashSet<>();
+
+    /**
+     * @return a pipeline with all passes of this package, in the order they work best in.
+     */
+    public static PassPipeline defaults() {
+        return new PassPipeline()
+                .add(new ConstantFolding())
+                .add(new IdentityRemoval())
+                .add(new OperatorFusion())
+                .add(new CommonSubexpressionElimination())
+                .add(new DeadNodeElimination());
+    }
+
+    public PassPipeline add(GraphPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    /**
+     * Turns a pass on or off.
+     *
+     * @param name The name of the pass.
+     * @param enabled Whether the pass should run.
+     * @return this pipeline.
+     */
+    public PassPipeline setEnabled(String name, boolean enabled) {
+        if (enabled) {
+            disabled.remove(name);
+        } else {
+            disabled.add(name);
+        }
+        return this;
+    }
+
+    public boolean isEnabled(String name) {
+        return !disabled.contains(name);
+    }
+
+    /**
+     * Runs every enabled pass on the tape.
+     *
+     * @return the number of ops each pass removed, by pass name.
+     */
+    public Map<String, Integer> run(SameDiff sd, PassContext context) {
+        Map<String, Integer> removed = new LinkedHashMap<>();
+        for (GraphPass pass : passes) {
+            if (isEnabled(pass.name())) {
+                removed.put(pass.name(), pass.apply(sd, context));
+            }
+        }
+
+        return removed;
+    }
+}
@@ -0,0 +1,282 @@
+package org.nd4j.autodiff.serving;
+
+import org.nd4j.autodiff.nn.Module;
+import org.nd4j.autodiff.nn.NativeExecution;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces single requests into batched calls of a module.
+ *
+ * Requests are queued and a worker thread collects them into one batch
+ * until it holds maxBatchSize rows or the oldest request waited maxWait.
+ * The batch is run with one call and the output rows are handed back to
+ * each request's future.
+ *
+ * Every request is an array whose first axis is the batch axis, usually
+ * with a single row. Only requests with the same data type and shape past
+ * the batch axis are batched together; a request that does not match the
+ * batch starts the next one. The module records one tape for all batch
+ * sizes as long as axis 0 is one of its dynamic axes.
+ *
+ * A batch that fails, with any Throwable, fails the futures of its
+ * requests, and the worker keeps serving.
+ */
+public class InferenceBatcher implements AutoCloseable {
+    private final Module module;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+    private Request carried;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong executionNanos = new AtomicLong();
+
+    private static class Request {
+        final INDArray input;
+        final CompletableFuture<INDArray> result = new CompletableFuture<>();
+        final long enqueued = System.nanoTime();
+
+        Request(INDArray input) {
+            this.input = input;
+        }
+
+        long rows() {
+            return input.size(0);
+        }
+
+        /**
+         * @return whether the request can be stacked with this one.
+         */
+        boolean matches(Request other) {
+            long[] shape = input.shape();
+            long[] otherShape = other.input.shape();
+            return input.dataType() == other.input.dataType()
+                    && Arrays.equals(Arrays.copyOfRange(shape, 1, shape.length), Arrays.copyOfRange(otherShape, 1, otherShape.length));
+        }
+    }
+
+    /**
+     * @param module The module to run, in the mode it should serve in.
+     * @param maxBatchSize The most rows a batch may hold.
+     * @param maxWait How long the oldest request may wait for others to join its batch.
+     * @param unit The unit of maxWait.
+     */
+    public InferenceBatcher(Module module, int maxBatchSize, long maxWait, TimeUnit unit) {
+        this.module = module;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+
+        worker = new Thread(this::run, "inference-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a request. A request submitted while or after the batcher
+     * closes fails instead of being queued.
+     *
+     * @param input The input rows, the first axis is the batch axis.
+     * @return the output rows for this request once its batch ran.
+     */
+    public CompletableFuture<INDArray> submit(INDArray input) {
+        if (input.rank() == 0) {
+            CompletableFuture<INDArray> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("A request needs a batch axis, it can not be a scalar."));
+            return failed;
+        }
+
+        Request request = new Request(input);
+        synchronized (lock) {
+            if (!running) {
+                request.result.completeExceptionally(new IllegalStateException("The batcher is closed."));
+                return request.result;
+            }
+
+            queue.add(request);
+        }
+
+        return request.result;
+    }
+
+    /**
+     * Runs batches until the batcher is closed, then fails every request
+     * that did not run: the batch being collected when close() interrupted
+     * the worker, the carried request and the queue. submit() queues under
+     * the same lock running is cleared with, so nothing is queued after the
+     * queue was drained. Should the worker stop for any other reason, the
+     * requests fail the same way.
+     */
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+        try {
+            while (running) {
+                try {
+                    collect(batch);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (!batch.isEmpty()) {
+                    execute(batch);
+                    batch.clear();
+                }
+            }
+        } finally {
+            failPending(batch);
+        }
+    }
+
+    private void failPending(List<Request> batch) {
+        synchronized (lock) {
+            running = false;
+        }
+
+        IllegalStateException closed = new IllegalStateException("The batcher was closed.");
+        for (Request request : batch) {
+            request.result.completeExceptionally(closed);
+        }
+        if (carried != null) {
+            carried.result.completeExceptionally(closed);
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(closed);
+        }
+    }
+
+    /**
+     * Adds requests to the batch until it is full, the oldest request
+     * waited maxWait or a request does not match the batch. The batch keeps
+     * what was collected when interrupted.
+     */
+    private void collect(List<Request> batch) throws InterruptedException {
+        Request first = carried != null ? carried : queue.poll(100, TimeUnit.MILLISECONDS);
+        carried = null;
+        if (first == null) {
+            return;
+        }
+
+        batch.add(first);
+        long size = first.rows();
+        long deadline = first.enqueued + maxWaitNanos;
+        while (size < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null) {
+                break;
+            }
+            if (size + next.rows() > maxBatchSize || !first.matches(next)) {
+                carried = next;
+                break;
+            }
+            batch.add(next);
+            size += next.rows();
+        }
+    }
+
+    private void execute(List<Request> batch) {
+        try {
+            NativeExecution.execute(() -> executeBatch(batch));
+        } catch (Throwable t) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(t);
+            }
+        }
+    }
+
+    private void executeBatch(List<Request> batch) {
+        long started = System.nanoTime();
+        INDArray[] inputs = new INDArray[batch.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            Request request = batch.get(i);
+            inputs[i] = request.input;
+            queueWaitNanos.addAndGet(started - request.enqueued);
+        }
+
+        try {
+            INDArray output = module.call(inputs.length == 1 ? inputs[0] : Nd4j.concat(0, inputs));
+
+            long offset = 0;
+            for (Request request : batch) {
+                INDArrayIndex[] indices = new INDArrayIndex[output.rank()];
+                indices[0] = NDArrayIndex.interval(offset, offset + request.rows());
+                for (int axis = 1; axis < indices.length; axis++) {
+                    indices[axis] = NDArrayIndex.all();
+                }
+                request.result.complete(output.get(indices).dup());
+                offset += request.rows();
+            }
+
+            rows.addAndGet(offset);
+        } catch (Throwable t) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(t);
+            }
+        }
+
+        batches.incrementAndGet();
+        requests.addAndGet(batch.size());
+        executionNanos.addAndGet(System.nanoTime() - started);
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return the average share of maxBatchSize the batches filled, between 0 and 1.
+     */
+    public double getBatchFillRatio() {
+        long count = batches.get();
+        return count == 0 ? 0.0 : rows.get() / (double) (count * maxBatchSize);
+    }
+
+    /**
+     * @return the average time a request waited before its batch started, in milliseconds.
+     */
+    public double getMeanQueueWaitMillis() {
+        long count = requests.get();
+        return count == 0 ? 0.0 : queueWaitNanos.get() / (count * 1e6);
+    }
+
+    /**
+     * @return the average time a batch took to run and scatter, in milliseconds.
+     */
+    public double getMeanExecutionMillis() {
+        long count = batches.get();
+        return count == 0 ? 0.0 : executionNanos.get() / (count * 1e6);
+    }
+
+    /**
+     * Stops the worker. Requests that did not run yet fail.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            running = false;
+        }
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.nd4j.autodiff.serving;
+
+import org.nd4j.autodiff.nn.InvalidModuleException;
+import org.nd4j.autodiff.nn.Module;
+import org.nd4j.autodiff.nn.Parameter;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A pool of replicas of one module for serving on many cores.
+ *
+ * Every replica shares the parameter arrays of the module, but records and
+ * runs its own tapes, so calls on different replicas never wait for each
+ * other. Each call is routed to the replica with the fewest calls in
+ * flight.
+ *
+ * The tapes read the shared arrays on every call, so weights updated in
+ * place are served by all replicas from the next call on; swapWeights
+ * replaces them without calls seeing a partial update.
+ */
+public class ModulePool {
+    private final Module[] replicas;
+    private final AtomicInteger[] inFlight;
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param module The module to serve, it becomes the first replica.
+     * @param size The number of replicas.
+     */
+    public ModulePool(Module module, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("A pool needs at least one replica, got " + size + ".");
+        }
+
+        replicas = new Module[size];
+        inFlight = new AtomicInteger[size];
+        replicas[0] = module;
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                replicas[i] = module.replica();
+            }
+            inFlight[i] = new AtomicInteger();
+        }
+    }
+
+    public INDArray call(INDArray input) {
+        int replica = acquire();
+        try {
+            return replicas[replica].call(input);
+        } finally {
+            release(replica);
+        }
+    }
+
+    public INDArray call(INDArray firstInput, INDArray secondInput) {
+        int replica = acquire();
+        try {
+            return replicas[replica].call(firstInput, secondInput);
+        } finally {
+            release(replica);
+        }
+    }
+
+    public INDArray[] call(INDArray[] inputs) {
+        int replica = acquire();
+        try {
+            return replicas[replica].call(inputs);
+        } finally {
+            release(replica);
+        }
+    }
+
+    private int acquire() {
+        swapLock.readLock().lock();
+
+        int best = 0;
+        for (int i = 1; i < inFlight.length; i++) {
+            if (inFlight[i].get() < inFlight[best].get()) {
+                best = i;
+            }
+        }
+        inFlight[best].incrementAndGet();
+
+        return best;
+    }
+
+    private void release(int replica) {
+        inFlight[replica].decrementAndGet();
+        swapLock.readLock().unlock();
+    }
+
+    /**
+     * Replaces the weights of every replica with the parameters of another
+     * module of the same architecture, e.g. a newly trained one.
+     *
+     * The values are copied once and shared by all replicas. The swap waits
+     * for calls in flight and no call sees a mix of old and new weights.
+     *
+     * @param trained The module to take the parameters from.
+     */
+    public void swapWeights(Module trained) {
+        List<INDArray> values = new ArrayList<>();
+        for (Parameter p : trained.parameters()) {
+            values.add(p.getArr());
+        }
+
+        swapWeights(values);
+    }
+
+    /**
+     * Replaces the weights of every replica, in the order of parameters().
+     *
+     * @param values The new parameter values.
+     */
+    public void swapWeights(List<INDArray> values) {
+        Collection<Parameter> current = replicas[0].parameters();
+        if (current.size() != values.size()) {
+            throw new InvalidModuleException("Expected " + current.size() + " parameters but got " + values.size() + ".");
+        }
+
+        INDArray[] copies = new INDArray[values.size()];
+        int i = 0;
+        for (Parameter p : current) {
+            INDArray value = values.get(i);
+            if (!Arrays.equals(p.getArr().shape(), value.shape())) {
+                throw new InvalidModuleException("Parameter " + i + " has shape " + Arrays.toString(p.getArr().shape())
+                        + " but the new value has shape " + Arrays.toString(value.shape()) + ".");
+            }
+            try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                copies[i] = value.castTo(p.getArr().dataType()).dup();
+            }
+            i++;
+        }
+
+        swapLock.writeLock().lock();
+        try {
+            for (Module replica : replicas) {
+                i = 0;
+                for (Parameter p : replica.parameters()) {
+                    p.setArray(copies[i++]);
+                }
+            }
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return replicas.length;
+    }
+
+    public Module getReplica(int index) {
+        return replicas[index];
+    }
+
+    /**
+     * @return the number of calls currently running on the replica.
+     */
+    public int getInFlight(int index) {
+        return inFlight[index].get();
+    }
+}
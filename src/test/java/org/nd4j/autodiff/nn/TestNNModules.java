@@ -6,23 +6,59 @@ import lombok.var;
 import org.deeplearning4j.datasets.iterator.impl.MnistDataSetIterator;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.nd4j.autodiff.data.PrefetchingLoader;
+import org.nd4j.autodiff.distributed.RingAllReduce;
 import org.nd4j.autodiff.eager.Tensor;
 import org.nd4j.autodiff.listeners.impl.ScoreListener;
 import org.nd4j.autodiff.optim.AdamOptimizer;
+import org.nd4j.autodiff.optim.DistributedOptimizer;
+import org.nd4j.autodiff.optim.GradScaler;
 import org.nd4j.autodiff.optim.Optimizer;
 import org.nd4j.autodiff.optim.Sgd;
+import org.nd4j.autodiff.parallel.DataParallelTrainer;
+import org.nd4j.autodiff.parallel.HogwildTrainer;
+import org.nd4j.autodiff.passes.PassPipeline;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.ops.SDNN;
+import org.nd4j.autodiff.serving.InferenceBatcher;
+import org.nd4j.autodiff.serving.ModulePool;
 import org.nd4j.autodiff.samediff.TrainingConfig;
 import org.nd4j.common.primitives.Pair;
 import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.ViewIterator;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.shade.guava.base.Stopwatch;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @Slf4j
 public class TestNNModules {
@@ -50,6 +86,47 @@ public class TestNNModules {
         }
     }
 
+    private static class Failing extends Module {
+        @Override
+        protected Tensor forward(Tensor x) {
+            throw new AssertionError("Failing module.");
+        }
+    }
+
+    private static class ScaledLinear extends Module {
+        @Param Parameter weight;
+        @Param Parameter gain;
+
+        ScaledLinear(long inFeatures, long outFeatures) {
+            super();
+            weight = new TensorParameter(inFeatures, outFeatures);
+            weight.setArray(Nd4j.rand(DataType.FLOAT, inFeatures, outFeatures));
+            gain = new TensorParameter(outFeatures);
+            gain.setArray(Nd4j.rand(DataType.FLOAT, outFeatures));
+        }
+
+        @Override
+        protected Tensor forward(Tensor x) {
+            return t(x.mmul(weight.mul(gain)));
+        }
+    }
+
+    private static class TwoScales extends Module {
+        private final double first;
+        private final double second;
+
+        TwoScales(double first, double second) {
+            super();
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        protected Tensor forward(Tensor x) {
+            return t(x.mul(first).add(x.mul(second)));
+        }
+    }
+
     @Test
     public void testForward() {
         MyModel model = new MyModel();
@@ -60,6 +137,301 @@ public class TestNNModules {
         assertNotNull(output);
     }
 
+    @Test
+    public void testGraphCache() {
+        MyModel model = new MyModel();
+
+        INDArray first = model.call(Nd4j.ones(4, 10)).dup();
+        model.call(Nd4j.ones(8, 10));
+        INDArray again = model.call(Nd4j.ones(4, 10));
+
+        GraphCache cache = model.getGraphCache();
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(first, again);
+
+        model.eval().call(Nd4j.ones(4, 10));
+        assertEquals(2, cache.getMisses());
+
+        model.setGraphCacheSize(1);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testWarmup() {
+        MyModel model = new MyModel();
+        Module criterion = new CrossEntropyLoss(model);
+
+        val times = criterion.warmup(Collections.singletonList(new long[][]{{32, 10}, {32, 2}}), true);
+        assertEquals(1, times.size());
+        assertEquals(1, criterion.getGraphCache().getMisses());
+
+        criterion.call(Nd4j.rand(32, 10), Nd4j.rand(32, 2));
+        assertEquals(1, criterion.getGraphCache().getMisses());
+    }
+
+    @Test
+    public void testFreeze() {
+        MyModel model = new MyModel();
+        model.trace(Nd4j.ones(4, 10));
+        assertTrue(model.isFrozen());
+
+        model.call(Nd4j.ones(6, 10));
+        assertEquals(0, model.getRetraceCount());
+
+        model.eval().call(Nd4j.ones(6, 10));
+        assertEquals(1, model.getRetraceCount());
+
+        model.train(true);
+        Module criterion = new CrossEntropyLoss(model).trace(Nd4j.rand(8, 10), Nd4j.rand(8, 2));
+        criterion.call(Nd4j.rand(8, 10), Nd4j.rand(8, 2));
+        criterion.backward();
+        assertEquals(0, criterion.getRetraceCount());
+        for (Parameter p : model.parameters()) {
+            assertNotNull(p.getGrad());
+        }
+    }
+
+    @Test
+    public void testGraphPasses() {
+        MyModel model = new MyModel();
+        INDArray input = Nd4j.rand(4, 10);
+        INDArray expected = model.call(input).dup();
+
+        model.fc1.requiresGrad(false);
+        model.setGraphPasses(PassPipeline.defaults());
+        assertEquals(expected, model.call(input));
+        assertEquals(0, (int) model.getPassReport().get("operator-fusion"));
+
+        model.eval();
+        INDArray actual = model.call(input);
+
+        assertEquals(expected, actual);
+        assertEquals(1, (int) model.getPassReport().get("operator-fusion"));
+
+        // Linear reads its weight as stored, so there is nothing to fold in
+        // MyModel; the product of a frozen weight and gain is.
+        ScaledLinear scaled = new ScaledLinear(10, 5);
+        expected = scaled.call(input).dup();
+        scaled.requiresGrad(false);
+        scaled.setGraphPasses(PassPipeline.defaults());
+        assertTrue(expected.equalsWithEps(scaled.call(input), 1e-6));
+        assertEquals(1, (int) scaled.getPassReport().get("constant-folding"));
+
+        // Scalar ops on the same input are only merged when their scalars are equal.
+        TwoScales different = new TwoScales(2.0, 3.0);
+        different.setGraphPasses(PassPipeline.defaults());
+        assertTrue(input.mul(5.0).equalsWithEps(different.call(input), 1e-6));
+        assertEquals(0, (int) different.getPassReport().get("common-subexpression-elimination"));
+
+        TwoScales same = new TwoScales(2.0, 2.0);
+        same.setGraphPasses(PassPipeline.defaults());
+        assertTrue(input.mul(4.0).equalsWithEps(same.call(input), 1e-6));
+        assertEquals(1, (int) same.getPassReport().get("common-subexpression-elimination"));
+    }
+
+    @Test
+    public void testConcurrentInference() throws Exception {
+        MyModel model = new MyModel();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int callsPerThread = 200;
+
+        INDArray[] inputs = new INDArray[threads];
+        INDArray[] expected = new INDArray[threads];
+        for (int i = 0; i < threads; i++) {
+            inputs[i] = Nd4j.rand(1 + i, 10);
+            expected[i] = model.call(inputs[i]).dup();
+        }
+
+        for (int workers = 1; workers <= threads; workers *= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                final int index = w;
+                results.add(executor.submit(() -> {
+                    boolean matches = true;
+                    for (int i = 0; i < callsPerThread; i++) {
+                        matches &= expected[index].equals(model.call(inputs[index]));
+                    }
+                    return matches;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentBackward() throws Exception {
+        MyModel model = new MyModel();
+        INDArray inputs = Nd4j.rand(8, 10);
+        INDArray labels = Nd4j.zeros(8, 2);
+        for (int i = 0; i < 8; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        Module criterion = new CrossEntropyLoss(model);
+        criterion.call(inputs, labels);
+        criterion.backward();
+        List<INDArray> single = new ArrayList<>();
+        for (Parameter p : model.parameters()) {
+            single.add(p.getGrad().dup());
+        }
+        model.zeroGrad(false);
+
+        // Every thread records its own criterion around the shared model and accumulates into its gradients.
+        int threads = 4;
+        int steps = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                Module own = new CrossEntropyLoss(model);
+                for (int step = 0; step < steps; step++) {
+                    own.call(inputs, labels);
+                    own.backward();
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        int i = 0;
+        for (Parameter p : model.parameters()) {
+            assertTrue(single.get(i++).mul(threads * steps).equalsWithEps(p.getGrad(), 1e-3));
+        }
+    }
+
+    @Test
+    public void testInferenceBatcher() throws Exception {
+        MyModel model = new MyModel();
+        model.eval();
+
+        int requests = 64;
+        INDArray[] inputs = new INDArray[requests];
+        INDArray[] expected = new INDArray[requests];
+        for (int i = 0; i < requests; i++) {
+            inputs[i] = Nd4j.rand(1, 10);
+            expected[i] = model.call(inputs[i]).dup();
+        }
+
+        try (InferenceBatcher batcher = new InferenceBatcher(model, 16, 2, TimeUnit.MILLISECONDS)) {
+            List<CompletableFuture<INDArray>> results = new ArrayList<>();
+            for (INDArray input : inputs) {
+                results.add(batcher.submit(input));
+            }
+            for (int i = 0; i < requests; i++) {
+                assertTrue(expected[i].equalsWithEps(results.get(i).get(), 1e-5));
+            }
+
+            assertTrue(batcher.getBatchCount() < requests);
+            assertTrue(batcher.getBatchFillRatio() > 0.0 && batcher.getBatchFillRatio() <= 1.0);
+            assertTrue(batcher.getMeanExecutionMillis() > 0.0);
+        }
+
+        // Rows of another shape are not stacked with the batch, they run on their own.
+        try (InferenceBatcher batcher = new InferenceBatcher(new Identity(), 16, 1, TimeUnit.SECONDS)) {
+            INDArray narrow = Nd4j.rand(1, 7);
+            CompletableFuture<INDArray> first = batcher.submit(inputs[0]);
+            CompletableFuture<INDArray> mismatched = batcher.submit(narrow);
+            CompletableFuture<INDArray> last = batcher.submit(inputs[1]);
+            assertEquals(inputs[0], first.get());
+            assertEquals(narrow, mismatched.get());
+            assertEquals(inputs[1], last.get());
+            assertTrue(batcher.submit(Nd4j.scalar(1.0f)).isCompletedExceptionally());
+        }
+
+        // An Error fails the requests of its batch instead of killing the worker.
+        try (InferenceBatcher batcher = new InferenceBatcher(new Failing(), 16, 2, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    batcher.submit(inputs[i]).get(1, TimeUnit.MINUTES);
+                    fail("The module fails every call.");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof AssertionError);
+                }
+            }
+        }
+
+        InferenceBatcher closing = new InferenceBatcher(model, 16, 10, TimeUnit.SECONDS);
+        List<CompletableFuture<INDArray>> pending = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pending.add(closing.submit(inputs[i]));
+        }
+        closing.close();
+        pending.add(closing.submit(inputs[3]));
+        for (CompletableFuture<INDArray> result : pending) {
+            assertTrue(result.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testModulePool() throws Exception {
+        MyModel model = new MyModel();
+        model.eval();
+        INDArray input = Nd4j.rand(8, 10);
+        INDArray expected = model.call(input).dup();
+
+        Module replica = model.replica();
+        assertTrue(model.fc1.weight.getArr() == replica.parameters().iterator().next().getArr());
+
+        ModulePool pool = new ModulePool(model, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<INDArray>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            results.add(executor.submit(() -> pool.call(input)));
+        }
+        for (Future<INDArray> result : results) {
+            assertEquals(expected, result.get());
+        }
+        executor.shutdown();
+
+        model.fc1.weight.getArr().muli(2.0);
+        model.fc2.bias.getArr().addi(1.0);
+        INDArray updated = model.call(input).dup();
+        assertNotEquals(expected, updated);
+        for (int i = 1; i < pool.size(); i++) {
+            assertEquals(updated, pool.getReplica(i).call(input));
+        }
+
+        MyModel trained = new MyModel();
+        trained.eval();
+        pool.swapWeights(trained);
+        INDArray swapped = trained.call(input).dup();
+        for (int i = 0; i < pool.size(); i++) {
+            assertEquals(swapped, pool.getReplica(i).call(input));
+        }
+    }
+
+    @Test
+    public void testCallAsync() throws Exception {
+        MyModel model = new MyModel();
+        model.eval();
+
+        List<INDArray> inputs = new ArrayList<>();
+        List<CompletableFuture<INDArray[]>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            INDArray input = Nd4j.rand(1 + i % 4, 10);
+            inputs.add(input);
+            results.add(model.callAsync(input));
+        }
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get();
+        for (int i = 0; i < inputs.size(); i++) {
+            assertEquals(model.call(inputs.get(i)), results.get(i).get()[0]);
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        model.setCallExecutor(executor);
+        assertEquals(model.call(inputs.get(0)), model.callAsync(inputs.get(0)).get()[0]);
+        executor.shutdown();
+    }
+
     @Test
     public void testLoss() {
         MyModel model = new MyModel();
@@ -117,6 +489,795 @@ public class TestNNModules {
         assertNotEquals(beforeOutput, afterOutput);
     }
 
+    @Test
+    public void testDataParallelTraining() {
+        INDArray inputs = Nd4j.rand(256, 10);
+        INDArray labels = Nd4j.zeros(256, 2);
+        for (int i = 0; i < 256; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        MyModel single = new MyModel();
+        MyModel parallel = new MyModel();
+        val singleParameters = new ArrayList<>(single.parameters());
+        val parallelParameters = new ArrayList<>(parallel.parameters());
+        for (int i = 0; i < singleParameters.size(); i++) {
+            parallelParameters.get(i).getArr().assign(singleParameters.get(i).getArr());
+        }
+
+        Module criterion = new CrossEntropyLoss(single);
+        Optimizer optimizer = new Sgd(single.parameters(), 0.1);
+        try (DataParallelTrainer trainer = new DataParallelTrainer(new CrossEntropyLoss(parallel), new Sgd(parallel.parameters(), 0.1), 4)) {
+            for (int step = 0; step < 3; step++) {
+                optimizer.zeroGrad();
+                double singleLoss = criterion.call(inputs, labels).sumNumber().doubleValue();
+                criterion.backward();
+                optimizer.step();
+
+                assertEquals(singleLoss, trainer.step(inputs, labels), 1e-4);
+                for (int i = 0; i < singleParameters.size(); i++) {
+                    assertTrue(singleParameters.get(i).getArr().equalsWithEps(parallelParameters.get(i).getArr(), 1e-4));
+                }
+            }
+        }
+
+        for (int workers = 1; workers <= Runtime.getRuntime().availableProcessors(); workers *= 2) {
+            MyModel model = new MyModel();
+            try (DataParallelTrainer trainer = new DataParallelTrainer(new CrossEntropyLoss(model), new Sgd(model.parameters(), 0.1), workers)) {
+                double first = trainer.step(inputs, labels);
+                double last = first;
+                for (int i = 0; i < 50; i++) {
+                    last = trainer.step(inputs, labels);
+                }
+                assertTrue(workers + " workers", last < first);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelOptimizerStep() {
+        Sequential serial = new Sequential(new Linear(10, 256), new Linear(256, 256), new Linear(256, 256), new Linear(256, 2));
+        Sequential parallel = new Sequential(new Linear(10, 256), new Linear(256, 256), new Linear(256, 256), new Linear(256, 2));
+        val serialParameters = new ArrayList<>(serial.parameters());
+        val parallelParameters = new ArrayList<>(parallel.parameters());
+        for (int i = 0; i < serialParameters.size(); i++) {
+            parallelParameters.get(i).getArr().assign(serialParameters.get(i).getArr());
+        }
+
+        Optimizer serialOptimizer = new AdamOptimizer(serial.parameters(), 0.01);
+        serialOptimizer.setPool(new ForkJoinPool(1));
+        Optimizer parallelOptimizer = new AdamOptimizer(parallel.parameters(), 0.01);
+        parallelOptimizer.setPool(new ForkJoinPool(4));
+
+        for (int step = 0; step < 3; step++) {
+            for (int i = 0; i < serialParameters.size(); i++) {
+                INDArray grad = Nd4j.rand(serialParameters.get(i).getArr().shape());
+                serialParameters.get(i).setGrad(grad.dup());
+                parallelParameters.get(i).setGrad(grad);
+            }
+            serialOptimizer.step();
+            parallelOptimizer.step();
+        }
+
+        for (int i = 0; i < serialParameters.size(); i++) {
+            assertEquals(serialParameters.get(i).getArr(), parallelParameters.get(i).getArr());
+        }
+    }
+
+    @Test
+    public void testGradientHooks() {
+        INDArray inputs = Nd4j.rand(32, 10);
+        INDArray labels = Nd4j.zeros(32, 2);
+        for (int i = 0; i < 32; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        MyModel serial = new MyModel();
+        MyModel overlapped = new MyModel();
+        val serialParameters = new ArrayList<>(serial.parameters());
+        val overlappedParameters = new ArrayList<>(overlapped.parameters());
+        for (int i = 0; i < serialParameters.size(); i++) {
+            overlappedParameters.get(i).getArr().assign(serialParameters.get(i).getArr());
+        }
+
+        List<Parameter> ready = Collections.synchronizedList(new ArrayList<>());
+        for (Parameter p : overlappedParameters) {
+            p.addGradientHook(ready::add);
+        }
+
+        Module serialCriterion = new CrossEntropyLoss(serial);
+        Module overlappedCriterion = new CrossEntropyLoss(overlapped);
+        Optimizer serialOptimizer = new AdamOptimizer(serial.parameters(), 0.01);
+        Optimizer overlappedOptimizer = new AdamOptimizer(overlapped.parameters(), 0.01).setOverlapBackward(true);
+        for (int step = 0; step < 3; step++) {
+            serialOptimizer.zeroGrad();
+            overlappedOptimizer.zeroGrad();
+            serialCriterion.call(inputs, labels);
+            serialCriterion.backward();
+            serialOptimizer.step();
+
+            overlappedCriterion.call(inputs, labels);
+            overlappedCriterion.backward();
+            overlappedOptimizer.step();
+        }
+
+        assertEquals(3 * overlappedParameters.size(), ready.size());
+        for (int i = 0; i < serialParameters.size(); i++) {
+            assertTrue(serialParameters.get(i).getArr().equalsWithEps(overlappedParameters.get(i).getArr(), 1e-5));
+        }
+    }
+
+    @Test
+    public void testHogwildTraining() {
+        List<DataSet> examples = new ArrayList<>();
+        for (int i = 0; i < 512; i++) {
+            INDArray features = Nd4j.rand(1, 10);
+            INDArray label = Nd4j.zeros(1, 2);
+            label.putScalar(0, features.getDouble(0, 0) > 0.5 ? 1 : 0, 1.0);
+            examples.add(new DataSet(features, label));
+        }
+        val all = DataSet.merge(examples);
+
+        MyModel model = new MyModel();
+        Module criterion = new CrossEntropyLoss(model);
+        double before = criterion.call(all.getFeatures(), all.getLabels()).sumNumber().doubleValue();
+
+        double[] losses = new double[20];
+        try (HogwildTrainer trainer = new HogwildTrainer(criterion, params -> new Sgd(params, 0.1), 4)) {
+            for (int epoch = 0; epoch < losses.length; epoch++) {
+                losses[epoch] = trainer.fit(new ViewIterator(all, 16));
+            }
+
+            assertTrue(trainer.getStepsPerSecond() > 0);
+            assertTrue(trainer.getExamplesPerSecond() >= trainer.getStepsPerSecond());
+            assertTrue(trainer.getMeanStaleness() >= 0.0 && trainer.getMeanStaleness() <= trainer.getMaxStaleness());
+        }
+
+        for (int epoch = 5; epoch < losses.length; epoch += 5) {
+            assertTrue(losses[epoch] < losses[epoch - 5]);
+        }
+        double after = criterion.call(all.getFeatures(), all.getLabels()).sumNumber().doubleValue();
+        assertTrue(after < before);
+    }
+
+    @Test
+    public void testDistributedTraining() throws Exception {
+        int ranks = 3;
+        INDArray inputs = Nd4j.rand(96, 10);
+        INDArray labels = Nd4j.zeros(96, 2);
+        for (int i = 0; i < 96; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        MyModel single = new MyModel();
+        val singleParameters = new ArrayList<>(single.parameters());
+        Module criterion = new CrossEntropyLoss(single);
+        Optimizer optimizer = new Sgd(single.parameters(), 0.1);
+
+        List<Integer> ports = new ArrayList<>();
+        for (int rank = 0; rank < ranks; rank++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                ports.add(socket.getLocalPort());
+            }
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int port : ports) {
+            addresses.add(new InetSocketAddress("127.0.0.1", port));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(ranks);
+        List<Future<List<INDArray>>> results = new ArrayList<>();
+        for (int rank = 0; rank < ranks; rank++) {
+            final int index = rank;
+            final List<INDArray> initial = new ArrayList<>();
+            for (Parameter p : singleParameters) {
+                initial.add(p.getArr().dup());
+            }
+            results.add(executor.submit(() -> {
+                MyModel model = new MyModel();
+                val parameters = new ArrayList<>(model.parameters());
+                for (int i = 0; i < parameters.size(); i++) {
+                    parameters.get(i).getArr().assign(initial.get(i));
+                }
+
+                try (RingAllReduce ring = new RingAllReduce(index, addresses)) {
+                    Module rankCriterion = new CrossEntropyLoss(model);
+                    INDArray x = inputs.get(NDArrayIndex.interval(32 * index, 32 * (index + 1)), NDArrayIndex.all());
+                    INDArray y = labels.get(NDArrayIndex.interval(32 * index, 32 * (index + 1)), NDArrayIndex.all());
+                    try (DistributedOptimizer rankOptimizer = new DistributedOptimizer(new Sgd(model.parameters(), 0.1), ring, 16)) {
+                        rankOptimizer.zeroGrad();
+                        rankCriterion.call(x, y);
+                        rankCriterion.backward();
+                        rankOptimizer.step();
+                    }
+
+                    // Closed, the optimizer no longer hooks into the gradients.
+                    rankCriterion.call(x, y);
+                    rankCriterion.backward();
+
+                    // Arrays are summed in their own data type, DOUBLE keeps what FLOAT would round away.
+                    INDArray doubles = Nd4j.valueArrayOf(new long[]{5}, 1.0 + 1e-12, DataType.DOUBLE);
+                    ring.allReduce(doubles);
+                    assertEquals(DataType.DOUBLE, doubles.dataType());
+                    assertEquals(ranks * 1e-12, doubles.getDouble(4) - ranks, 1e-15);
+                    INDArray halves = Nd4j.valueArrayOf(new long[]{5}, 0.25, DataType.HALF);
+                    ring.allReduce(halves);
+                    assertEquals(DataType.HALF, halves.dataType());
+                    assertEquals(Nd4j.valueArrayOf(new long[]{5}, ranks * 0.25, DataType.HALF), halves);
+                }
+
+                List<INDArray> weights = new ArrayList<>();
+                for (Parameter p : parameters) {
+                    weights.add(p.getArr());
+                }
+                return weights;
+            }));
+        }
+
+        criterion.call(inputs, labels);
+        criterion.backward();
+        optimizer.step();
+
+        for (Future<List<INDArray>> result : results) {
+            List<INDArray> weights = result.get();
+            for (int i = 0; i < weights.size(); i++) {
+                assertTrue(singleParameters.get(i).getArr().equalsWithEps(weights.get(i), 1e-4));
+            }
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Trains one step with every rank in its own process, launched the way
+     * a launcher would: the ring is described in the environment.
+     */
+    @Test
+    public void testDistributedProcesses() throws Exception {
+        int ranks = 2;
+        INDArray inputs = Nd4j.rand(64, 10);
+        INDArray labels = Nd4j.zeros(64, 2);
+        for (int i = 0; i < 64; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        File directory = Files.createTempDirectory("distributed").toFile();
+        MyModel single = new MyModel();
+        val singleParameters = new ArrayList<>(single.parameters());
+        for (int i = 0; i < singleParameters.size(); i++) {
+            Nd4j.saveBinary(singleParameters.get(i).getArr(), new File(directory, "parameter" + i));
+        }
+        for (int rank = 0; rank < ranks; rank++) {
+            Nd4j.saveBinary(inputs.get(NDArrayIndex.interval(32 * rank, 32 * (rank + 1)), NDArrayIndex.all()).dup(),
+                    new File(directory, "inputs" + rank));
+            Nd4j.saveBinary(labels.get(NDArrayIndex.interval(32 * rank, 32 * (rank + 1)), NDArrayIndex.all()).dup(),
+                    new File(directory, "labels" + rank));
+        }
+
+        StringBuilder addresses = new StringBuilder();
+        for (int rank = 0; rank < ranks; rank++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                addresses.append(rank == 0 ? "" : ",").append("127.0.0.1:").append(socket.getLocalPort());
+            }
+        }
+
+        List<Process> processes = new ArrayList<>();
+        for (int rank = 0; rank < ranks; rank++) {
+            ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("java.class.path"), DistributedRank.class.getName(), directory.getPath());
+            builder.environment().put("RANK", String.valueOf(rank));
+            builder.environment().put("WORLD_SIZE", String.valueOf(ranks));
+            builder.environment().put("RING_ADDRESSES", addresses.toString());
+            builder.redirectErrorStream(true).redirectOutput(new File(directory, "rank" + rank + ".log"));
+            processes.add(builder.start());
+        }
+
+        Module criterion = new CrossEntropyLoss(single);
+        criterion.call(inputs, labels);
+        criterion.backward();
+        new Sgd(single.parameters(), 0.1).step();
+
+        for (int rank = 0; rank < ranks; rank++) {
+            Process process = processes.get(rank);
+            assertTrue(process.waitFor(5, TimeUnit.MINUTES));
+            assertEquals(new String(Files.readAllBytes(new File(directory, "rank" + rank + ".log").toPath())), 0, process.exitValue());
+            for (int i = 0; i < singleParameters.size(); i++) {
+                INDArray weights = Nd4j.readBinary(new File(directory, "rank" + rank + "-parameter" + i));
+                assertTrue(singleParameters.get(i).getArr().equalsWithEps(weights, 1e-4));
+            }
+        }
+    }
+
+    /**
+     * One rank of testDistributedProcesses, reading its part of the data
+     * from the directory and writing its parameters back after a step.
+     */
+    static class DistributedRank {
+        public static void main(String[] args) {
+            try {
+                File directory = new File(args[0]);
+                try (RingAllReduce ring = RingAllReduce.fromEnvironment()) {
+                    int rank = ring.getRank();
+                    MyModel model = new MyModel();
+                    val parameters = new ArrayList<>(model.parameters());
+                    for (int i = 0; i < parameters.size(); i++) {
+                        parameters.get(i).getArr().assign(Nd4j.readBinary(new File(directory, "parameter" + i)));
+                    }
+
+                    Module criterion = new CrossEntropyLoss(model);
+                    try (DistributedOptimizer optimizer = new DistributedOptimizer(new Sgd(model.parameters(), 0.1), ring, 16)) {
+                        optimizer.zeroGrad();
+                        criterion.call(Nd4j.readBinary(new File(directory, "inputs" + rank)),
+                                Nd4j.readBinary(new File(directory, "labels" + rank)));
+                        criterion.backward();
+                        optimizer.step();
+                    }
+
+                    for (int i = 0; i < parameters.size(); i++) {
+                        Nd4j.saveBinary(parameters.get(i).getArr(), new File(directory, "rank" + rank + "-parameter" + i));
+                    }
+                }
+            } catch (Throwable t) {
+                t.printStackTrace();
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+    }
+
+    private static Sequential deepModel() {
+        return new Sequential(new Linear(10, 32), new Linear(32, 32), new Linear(32, 32), new Linear(32, 32), new Linear(32, 2));
+    }
+
+    @Test
+    public void testPipeline() {
+        INDArray inputs = Nd4j.rand(64, 10);
+        INDArray labels = Nd4j.zeros(64, 2);
+        for (int i = 0; i < 64; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        Sequential single = deepModel();
+        Sequential pipelined = deepModel();
+        val singleParameters = new ArrayList<>(single.parameters());
+        val pipelinedParameters = new ArrayList<>(pipelined.parameters());
+        assertEquals(10, singleParameters.size());
+        for (int i = 0; i < singleParameters.size(); i++) {
+            pipelinedParameters.get(i).getArr().assign(singleParameters.get(i).getArr());
+        }
+
+        Module criterion = new CrossEntropyLoss(single);
+        Optimizer optimizer = new Sgd(single.parameters(), 0.01);
+        try (Pipeline pipeline = new Pipeline(pipelined, CrossEntropyLoss::new, new Sgd(pipelined.parameters(), 0.01), 3, 4, inputs.get(NDArrayIndex.interval(0, 16), NDArrayIndex.all()))) {
+            assertEquals(3, pipeline.getStages().size());
+            double[] losses = new double[5];
+            for (int step = 0; step < losses.length; step++) {
+                optimizer.zeroGrad();
+                double singleLoss = criterion.call(inputs, labels).sumNumber().doubleValue();
+                criterion.backward();
+                optimizer.step();
+
+                losses[step] = pipeline.step(inputs, labels);
+                assertEquals(singleLoss, losses[step], 1e-4);
+                if (step > 0) {
+                    assertTrue(losses[step] < losses[step - 1]);
+                }
+                for (int i = 0; i < singleParameters.size(); i++) {
+                    assertTrue(singleParameters.get(i).getArr().equalsWithEps(pipelinedParameters.get(i).getArr(), 1e-4));
+                }
+            }
+            assertTrue(single.call(inputs).equalsWithEps(pipeline.call(inputs), 1e-4));
+        }
+    }
+
+    @Test
+    public void testPrefetchingLoader() {
+        List<DataSet> examples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            examples.add(new DataSet(Nd4j.valueArrayOf(new long[]{1, 10}, i), Nd4j.zeros(1, 2)));
+        }
+
+        PrefetchingLoader loader = new PrefetchingLoader(new ViewIterator(DataSet.merge(examples), 8), 3, ds -> ds.setFeatures(ds.getFeatures().mul(2)), 2);
+        for (int epoch = 0; epoch < 2; epoch++) {
+            loader.reset();
+            int row = 0;
+            while (loader.hasNext()) {
+                INDArray features = loader.next().getFeatures();
+                for (int i = 0; i < features.size(0); i++) {
+                    assertEquals(2.0 * row++, features.getDouble(i, 0), 1e-6);
+                }
+            }
+            assertEquals(100, row);
+        }
+        assertEquals(26, loader.getBatchCount());
+        loader.close();
+    }
+
+    @Test
+    public void testZeroGrad() {
+        INDArray inputs = Nd4j.rand(16, 10);
+        INDArray labels = Nd4j.rand(16, 2);
+
+        MyModel model = new MyModel();
+        Module criterion = new CrossEntropyLoss(model);
+        val parameters = new ArrayList<>(model.parameters());
+        criterion.call(inputs, labels);
+        criterion.backward();
+
+        List<INDArray> grads = new ArrayList<>();
+        List<INDArray> single = new ArrayList<>();
+        for (Parameter p : parameters) {
+            grads.add(p.getGrad());
+            single.add(p.getGrad().dup());
+        }
+
+        criterion.call(inputs, labels);
+        criterion.backward();
+        for (int i = 0; i < parameters.size(); i++) {
+            assertSame(grads.get(i), parameters.get(i).getGrad());
+            assertTrue(single.get(i).mul(2).equalsWithEps(grads.get(i), 1e-5));
+        }
+
+        parameters.get(0).getGrad().putScalar(0, Double.NaN);
+        model.zeroGrad();
+        for (int i = 0; i < parameters.size(); i++) {
+            assertSame(grads.get(i), parameters.get(i).getGrad());
+            assertEquals(0.0, grads.get(i).amaxNumber().doubleValue(), 0.0);
+        }
+
+        model.zeroGrad(true);
+        for (Parameter p : parameters) {
+            assertNull(p.getGrad());
+        }
+        criterion.call(inputs, labels);
+        criterion.backward();
+        for (int i = 0; i < parameters.size(); i++) {
+            assertSame(grads.get(i), parameters.get(i).getGrad());
+            assertTrue(single.get(i).equalsWithEps(grads.get(i), 1e-5));
+        }
+
+        int steps = 20;
+        IdentityHashMap<INDArray, Boolean> replaced = new IdentityHashMap<>();
+        IdentityHashMap<INDArray, Boolean> reused = new IdentityHashMap<>();
+        for (int step = 0; step < steps; step++) {
+            for (Parameter p : parameters) {
+                p.setGrad(Nd4j.zeros(p.getArr().dataType(), p.getArr().shape()));
+                replaced.put(p.getGrad(), Boolean.TRUE);
+            }
+            criterion.call(inputs, labels);
+            criterion.backward();
+        }
+        for (int step = 0; step < steps; step++) {
+            model.zeroGrad();
+            criterion.call(inputs, labels);
+            criterion.backward();
+            for (Parameter p : parameters) {
+                reused.put(p.getGrad(), Boolean.TRUE);
+            }
+        }
+        assertEquals(parameters.size() * steps, replaced.size());
+        assertEquals(parameters.size(), reused.size());
+
+        FlatParameters flat = model.flattenParameters();
+        criterion.call(inputs, labels);
+        criterion.backward();
+        INDArray buffer = flat.getGradients();
+        new Sgd(flat, 0.1).zeroGrad();
+        assertSame(buffer, flat.getGradients());
+        assertEquals(0.0, buffer.amaxNumber().doubleValue(), 0.0);
+    }
+
+    @Test
+    public void testCheckpoint() {
+        INDArray inputs = Nd4j.rand(32, 10);
+        INDArray labels = Nd4j.zeros(32, 2);
+        for (int i = 0; i < 32; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        assertCheckpointGradients(deepModel(), deepModel(), inputs, labels);
+        // The recomputed segments replay the random state of the call, whatever was drawn in between.
+        Sequential dropout = new Sequential(new Linear(10, 32), new Dropout2D(), new Linear(32, 32), new Dropout2D(),
+                new Linear(32, 2)).setCheckpointSegments(2);
+        Module dropoutLoss = new CrossEntropyLoss(new Identity());
+        dropoutLoss.call(dropout.call(inputs), labels);
+        dropoutLoss.backward();
+        val dropoutParameters = new ArrayList<>(dropout.parameters());
+        List<INDArray> dropoutGradients = new ArrayList<>();
+        for (Parameter parameter : dropoutParameters) {
+            dropoutGradients.add(parameter.getGrad().dup());
+        }
+        dropout.zeroGrad(true);
+        dropoutLoss.call(dropout.call(inputs), labels);
+        Nd4j.rand(32, 32);
+        long rootState = Nd4j.getRandom().rootState();
+        dropoutLoss.backward();
+        assertEquals(rootState, Nd4j.getRandom().rootState());
+        for (int i = 0; i < dropoutParameters.size(); i++) {
+            assertEquals(dropoutGradients.get(i), dropoutParameters.get(i).getGrad());
+        }
+
+        Module[] linear = new Module[8];
+        Module[] conv = new Module[4];
+        for (int i = 0; i < linear.length; i++) {
+            linear[i] = new Linear(64, 64);
+        }
+        for (int i = 0; i < conv.length; i++) {
+            conv[i] = new Conv2D(8, 8, Pair.of(3, 3), Pair.of(1, 1), Pair.of(1, 1));
+        }
+        assertSegmentGradients(new Sequential(linear), Nd4j.rand(DataType.FLOAT, 32, 64));
+        assertSegmentGradients(new Sequential(conv), Nd4j.rand(DataType.FLOAT, 4, 8, 16, 16));
+    }
+
+    /**
+     * Checks that the regular backward of a criterion called with the output
+     * of a checkpointed model computes the gradients of an uncheckpointed
+     * copy of it.
+     */
+    private static void assertCheckpointGradients(Sequential plain, Sequential checkpointed, INDArray inputs, INDArray labels) {
+        checkpointed.setCheckpointSegments(2);
+        val plainParameters = new ArrayList<>(plain.parameters());
+        val checkpointedParameters = new ArrayList<>(checkpointed.parameters());
+        for (int i = 0; i < plainParameters.size(); i++) {
+            checkpointedParameters.get(i).getArr().assign(plainParameters.get(i).getArr());
+        }
+
+        Module criterion = new CrossEntropyLoss(plain);
+        double plainLoss = criterion.call(inputs, labels).sumNumber().doubleValue();
+        criterion.backward();
+
+        Module loss = new CrossEntropyLoss(new Identity());
+        assertEquals(plainLoss, loss.call(checkpointed.call(inputs), labels).sumNumber().doubleValue(), 1e-4);
+        loss.backward();
+        for (int i = 0; i < plainParameters.size(); i++) {
+            assertTrue(plainParameters.get(i).getGrad().equalsWithEps(checkpointedParameters.get(i).getGrad(), 1e-4));
+        }
+    }
+
+    /**
+     * Checks that every number of checkpoint segments computes the
+     * gradients of one segment, which keeps the activations of the whole
+     * model like a plain backward pass.
+     */
+    private static void assertSegmentGradients(Sequential model, INDArray input) {
+        INDArray outputGradient = Nd4j.onesLike(model.eval().call(input));
+        model.train(true);
+        List<INDArray> expected = null;
+        for (int segments = 1; segments <= model.size(); segments *= 2) {
+            model.setCheckpointSegments(segments);
+            model.call(input);
+            model.backward(outputGradient);
+            List<INDArray> gradients = new ArrayList<>();
+            for (Parameter p : model.parameters()) {
+                gradients.add(p.getGrad().dup());
+            }
+            model.zeroGrad(true);
+
+            if (expected == null) {
+                expected = gradients;
+            }
+            for (int i = 0; i < gradients.size(); i++) {
+                double scale = Math.max(1.0, expected.get(i).amaxNumber().doubleValue());
+                assertTrue(segments + " segments", expected.get(i).equalsWithEps(gradients.get(i), 1e-4 * scale));
+            }
+        }
+    }
+
+    @Test
+    public void testMixedPrecision() {
+        INDArray inputs = Nd4j.rand(32, 10);
+        INDArray labels = Nd4j.zeros(32, 2);
+        for (int i = 0; i < 32; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        MyModel model = new MyModel();
+        Module criterion = new CrossEntropyLoss(model).setMixedPrecision(DataType.BFLOAT16);
+        for (Parameter p : model.parameters()) {
+            assertEquals(DataType.BFLOAT16, p.getArr().dataType());
+        }
+
+        GradScaler scaler = new GradScaler(criterion, params -> new Sgd(params, 0.1));
+        for (Parameter p : scaler.getMasterParameters()) {
+            assertEquals(DataType.FLOAT, p.getArr().dataType());
+        }
+
+        double[] losses = mixedPrecisionLosses(criterion, scaler, inputs, labels, 20);
+        assertEquals(0, scaler.getSkippedSteps());
+        assertTrue(losses[1] < losses[0]);
+
+        Module dropout = new Sequential(new Linear(10, 5), new Dropout2D()).setMixedPrecision(DataType.BFLOAT16);
+        assertEquals(DataType.BFLOAT16, dropout.call(inputs).dataType());
+
+        // The BFLOAT16 forms of the activations compute what ND4J's activations do.
+        SameDiff sd = SameDiff.create();
+        float[] values = new float[33];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = -8.0f + i * 0.5f;
+        }
+        SDVariable x = sd.constant(Nd4j.createFromArray(values));
+        SDNN plain = sd.nn();
+        SDNN bfloat16 = new Bfloat16NN(sd);
+        SDVariable[][] activations = {
+                {plain.relu(x, 0.5), bfloat16.relu(x, 0.5)},
+                {plain.relu6(x, 0.0), bfloat16.relu6(x, 0.0)},
+                {plain.leakyRelu(x, 0.1), bfloat16.leakyRelu(x, 0.1)},
+                {plain.elu(x), bfloat16.elu(x)},
+                {plain.selu(x), bfloat16.selu(x)},
+                {plain.sigmoid(x), bfloat16.sigmoid(x)},
+                {plain.logSigmoid(x), bfloat16.logSigmoid(x)},
+                {plain.hardSigmoid(x), bfloat16.hardSigmoid(x)},
+                {plain.tanh(x), bfloat16.tanh(x)},
+                {plain.hardTanh(x), bfloat16.hardTanh(x)}
+        };
+        for (SDVariable[] activation : activations) {
+            assertTrue(activation[1].name(), activation[0].eval().equalsWithEps(activation[1].eval(), 1e-4));
+        }
+
+        // With the default loss scale FLOAT16 trains from the first step.
+        MyModel half = new MyModel();
+        Module halfCriterion = new CrossEntropyLoss(half).setMixedPrecision(DataType.FLOAT16);
+        GradScaler halfScaler = new GradScaler(halfCriterion, params -> new Sgd(params, 0.1));
+        losses = mixedPrecisionLosses(halfCriterion, halfScaler, inputs, labels, 20);
+        assertEquals(0, halfScaler.getSkippedSteps());
+        assertEquals(GradScaler.DEFAULT_INIT_SCALE, halfScaler.getScale(), 0.0);
+        assertTrue(losses[1] < losses[0]);
+
+        // At 2^30 the FLOAT16 gradients overflow, the step is skipped and the scale backs off
+        // until the gradients fit.
+        MyModel overflowing = new MyModel();
+        Module overflowingCriterion = new CrossEntropyLoss(overflowing).setMixedPrecision(DataType.FLOAT16);
+        GradScaler overflowingScaler = new GradScaler(overflowingCriterion, params -> new Sgd(params, 0.1), 1 << 30,
+                GradScaler.DEFAULT_GROWTH_FACTOR, GradScaler.DEFAULT_BACKOFF_FACTOR, GradScaler.DEFAULT_GROWTH_INTERVAL);
+        INDArray before = overflowing.parameters().iterator().next().getArr().dup();
+        mixedPrecisionLosses(overflowingCriterion, overflowingScaler, inputs, labels, 1);
+        assertEquals(1, overflowingScaler.getSkippedSteps());
+        assertEquals(1 << 29, overflowingScaler.getScale(), 0.0);
+        assertEquals(before, overflowing.parameters().iterator().next().getArr());
+        long skipped;
+        do {
+            skipped = overflowingScaler.getSkippedSteps();
+            mixedPrecisionLosses(overflowingCriterion, overflowingScaler, inputs, labels, 1);
+        } while (overflowingScaler.getSkippedSteps() > skipped && skipped < 30);
+        assertEquals(skipped, overflowingScaler.getSkippedSteps());
+        assertNotEquals(before, overflowing.parameters().iterator().next().getArr());
+
+        try {
+            halfScaler.setOverlapBackward(true);
+            fail("GradScaler can not update during backward.");
+        } catch (IllegalStateException e) {
+            // Expected, the overflow check needs every gradient.
+        }
+    }
+
+    /**
+     * Trains with the scaler for some steps.
+     *
+     * @return the losses of the first and the last step.
+     */
+    private static double[] mixedPrecisionLosses(Module criterion, GradScaler scaler, INDArray inputs, INDArray labels, int steps) {
+        double[] losses = new double[2];
+        for (int step = 0; step < steps; step++) {
+            scaler.zeroGrad();
+            losses[1] = criterion.call(inputs, labels).castTo(DataType.FLOAT).sumNumber().doubleValue();
+            criterion.backward();
+            scaler.step();
+            if (step == 0) {
+                losses[0] = losses[1];
+            }
+        }
+
+        return losses;
+    }
+
+    @Test
+    public void testFlatParameters() {
+        INDArray inputs = Nd4j.rand(32, 10);
+        INDArray labels = Nd4j.zeros(32, 2);
+        for (int i = 0; i < 32; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        MyModel separate = new MyModel();
+        MyModel flattened = new MyModel();
+        val separateParameters = new ArrayList<>(separate.parameters());
+        val flattenedParameters = new ArrayList<>(flattened.parameters());
+        for (int i = 0; i < separateParameters.size(); i++) {
+            flattenedParameters.get(i).getArr().assign(separateParameters.get(i).getArr());
+        }
+        INDArray before = flattened.call(inputs).dup();
+
+        FlatParameters flat = flattened.flattenParameters();
+        assertEquals(10 * 5 + 5 + 5 * 2 + 2, flat.getValues().length());
+        assertEquals(before, flattened.call(inputs));
+        flat.getValues().addi(1.0);
+        assertEquals(separateParameters.get(0).getArr().add(1.0), flattenedParameters.get(0).getArr());
+        flat.getValues().subi(1.0);
+
+        Module separateCriterion = new CrossEntropyLoss(separate);
+        Module flattenedCriterion = new CrossEntropyLoss(flattened);
+        Optimizer separateOptimizer = new AdamOptimizer(separate.parameters(), 0.01);
+        Optimizer flattenedOptimizer = new AdamOptimizer(flat, 0.01);
+        for (int step = 0; step < 3; step++) {
+            separateOptimizer.zeroGrad();
+            separateCriterion.call(inputs, labels);
+            separateCriterion.backward();
+            separateOptimizer.step();
+
+            flattenedOptimizer.zeroGrad();
+            flattenedCriterion.call(inputs, labels);
+            flattenedCriterion.backward();
+            flattenedOptimizer.step();
+        }
+
+        for (int i = 0; i < separateParameters.size(); i++) {
+            assertTrue(separateParameters.get(i).getArr().equalsWithEps(flattenedParameters.get(i).getArr(), 1e-5));
+        }
+
+        // A gradient of another shape is reshaped into the flat buffer, never replaces the view.
+        Parameter bias = flattenedParameters.get(1);
+        INDArray view = bias.getGrad();
+        Parameter.zeroGrad(flat, true);
+        bias.updateGrad(Nd4j.ones(bias.getArr().length(), 1));
+        assertSame(view, bias.getGrad());
+        assertEquals(bias.getArr().length(), flat.getGradients().sumNumber().longValue());
+        try {
+            bias.updateGrad(Nd4j.ones(bias.getArr().length() + 1));
+            fail("A gradient of another length does not fit.");
+        } catch (InvalidModuleException e) {
+            // Expected, the gradient keeps its length.
+        }
+    }
+
+    @Test
+    public void testTrainingWorkspace() {
+        INDArray inputs = Nd4j.rand(64, 10);
+        INDArray labels = Nd4j.zeros(64, 2);
+        for (int i = 0; i < 64; i++) {
+            labels.putScalar(i, i % 2, 1.0);
+        }
+
+        MyModel plain = new MyModel();
+        MyModel scoped = new MyModel();
+        val plainParameters = new ArrayList<>(plain.parameters());
+        val scopedParameters = new ArrayList<>(scoped.parameters());
+        for (int i = 0; i < plainParameters.size(); i++) {
+            scopedParameters.get(i).getArr().assign(plainParameters.get(i).getArr());
+        }
+
+        Module plainCriterion = new CrossEntropyLoss(plain);
+        Module scopedCriterion = new CrossEntropyLoss(scoped);
+        Optimizer plainOptimizer = new AdamOptimizer(plain.parameters(), 0.01);
+        Optimizer scopedOptimizer = new AdamOptimizer(scoped.parameters(), 0.01);
+        TrainingWorkspace workspace = new TrainingWorkspace();
+
+        long spilledAfterFirstStep = 0;
+        for (int step = 0; step < 10; step++) {
+            plainOptimizer.zeroGrad();
+            double plainLoss = plainCriterion.call(inputs, labels).sumNumber().doubleValue();
+            plainCriterion.backward();
+            plainOptimizer.step();
+
+            double scopedLoss = workspace.step(() -> {
+                scopedOptimizer.zeroGrad();
+                double loss = scopedCriterion.call(inputs, labels).sumNumber().doubleValue();
+                scopedCriterion.backward();
+                scopedOptimizer.step();
+                return loss;
+            });
+
+            assertEquals(plainLoss, scopedLoss, 1e-5);
+            if (step == 0) {
+                spilledAfterFirstStep = workspace.getSpilledBytes();
+            }
+        }
+
+        assertTrue(workspace.getLastStepBytes() <= workspace.getWorkspaceBytes());
+        assertEquals(spilledAfterFirstStep, workspace.getSpilledBytes());
+        for (int i = 0; i < plainParameters.size(); i++) {
+            assertTrue(plainParameters.get(i).getArr().equalsWithEps(scopedParameters.get(i).getArr(), 1e-5));
+        }
+    }
+
     static class MnistModel extends Module {
         @Mod Conv2D conv1;
         @Mod Conv2D iconv1;
@@ -177,14 +1338,16 @@ public class TestNNModules {
         //val optimizer = new Sgd(model.parameters(), 0.001, 0.9, 0.0, 0.0, false);
         val optimizer = new AdamOptimizer(model.parameters(), 0.01);
 
+        val loader = new PrefetchingLoader(trainData, 4);
+
         val stopwatch = Stopwatch.createStarted();
         var i = 0;
 
         for (int epoch = 1; epoch <= 10; epoch++) {
-            trainData.reset();
+            loader.reset();
 
-            while (trainData.hasNext()) {
-                val dataSet = trainData.next();
+            while (loader.hasNext()) {
+                val dataSet = loader.next();
 
                 optimizer.zeroGrad();
                 val loss = criterion.call(dataSet.getFeatures(), dataSet.getLabels());
@@ -201,6 +1364,7 @@ public class TestNNModules {
         }
         val elapsed = stopwatch.elapsed(TimeUnit.SECONDS);
         System.out.println("Training Time: " + elapsed + "s");
+        loader.close();
 
         val evaluation = new Evaluation(trainData.getLabels().size());
         while (testData.hasNext()) {
@@ -212,6 +1376,67 @@ public class TestNNModules {
         System.out.println(evaluation);
     }
 
+    @Test
+    public void testExportStartup() throws IOException {
+        INDArray input = Nd4j.rand(16, 784);
+        File file = File.createTempFile("mnist", ".fb");
+        file.deleteOnExit();
+
+        MnistModel model = new MnistModel(10);
+        model.eval().trace(input);
+        int variables = model.getTape().variables().size();
+        model.export(file);
+        INDArray expected = model.call(input);
+        // The export works on a copy, the tape in use is not changed.
+        assertEquals(variables, model.getTape().variables().size());
+        assertFalse(model.getTape().hasVariable("output0"));
+
+        Module loaded = Module.load(file);
+        assertEquals(expected, loaded.call(input));
+        assertEquals(model.call(input.get(NDArrayIndex.interval(0, 4), NDArrayIndex.all())),
+                loaded.call(input.get(NDArrayIndex.interval(0, 4), NDArrayIndex.all())));
+    }
+
+    private static class TransposedLinear extends Module {
+        @Param Parameter weight;
+        @Param Parameter bias;
+
+        TransposedLinear(long inFeatures, long outFeatures) {
+            super();
+            weight = new TensorParameter(outFeatures, inFeatures);
+            bias = new TensorParameter(outFeatures);
+            weight.setArray(Nd4j.rand(DataType.FLOAT, outFeatures, inFeatures));
+            bias.setArray(Nd4j.rand(DataType.FLOAT, outFeatures));
+        }
+
+        @Override
+        protected Tensor forward(Tensor input) {
+            return t(nn.linear(input, input.getSameDiff().transpose(weight), bias));
+        }
+    }
+
+    @Test
+    public void testLinearLayout() {
+        for (int size : new int[]{64, 256}) {
+            INDArray input = Nd4j.rand(DataType.FLOAT, 128, size);
+            INDArray labels = Nd4j.rand(DataType.FLOAT, 128, size);
+
+            TransposedLinear transposed = new TransposedLinear(size, size);
+            Linear linear = new Linear(size, size);
+            linear.setWeight(transposed.weight.getArr());
+            linear.bias.getArr().assign(transposed.bias.getArr());
+            assertEquals(transposed.call(input), linear.call(input));
+
+            // The matmul-ready weight gets the transposed gradient of the usual layout.
+            for (Module criterion : new Module[]{new CrossEntropyLoss(transposed), new CrossEntropyLoss(linear)}) {
+                criterion.call(input, labels);
+                criterion.backward();
+            }
+            assertTrue(transposed.weight.getGrad().transpose().equalsWithEps(linear.weight.getGrad(), 1e-3));
+            assertTrue(transposed.bias.getGrad().equalsWithEps(linear.bias.getGrad(), 1e-3));
+        }
+    }
+
     @Test
     public void testGraphPerformance() throws IOException {
         val trainData = new MnistDataSetIterator(600, true, 42);